@@ -0,0 +1,62 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Make the empty gitlet repository a benchmark works in.
+ * <p>
+ * The paths of a repository are fixed when {@link Repository} is loaded, from the working
+ * directory of the JVM. So the working directory is moved to a new temporary directory before any
+ * class using them is loaded, which only works once per JVM: every benchmark runs in forked JVMs.
+ *
+ * @author hdon694
+ */
+class BenchRepo {
+    private static File dir;
+
+    /**
+     * Create a temporary directory holding a new repository, and make it the working directory.
+     * Later calls in the same JVM return the same directory.
+     *
+     * @return the working directory.
+     */
+    static synchronized File init() {
+        if (dir == null) {
+            try {
+                dir = Files.createTempDirectory("gitlet-bench").toFile();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            System.setProperty("user.dir", dir.getPath());
+            if (!Repository.CWD.equals(dir)) {
+                throw new IllegalStateException("Repository was loaded before BenchRepo.init.");
+            }
+            Repository.initCommand();
+        }
+        return dir;
+    }
+
+    /**
+     * Return a staging area of ENTRIES files, "dir0/file0" to "dirN/fileM" with 100 files per
+     * directory, each with its own made-up hash.
+     *
+     * @param entries the number of files.
+     * @return the staging area.
+     */
+    static StagingArea staging(int entries) {
+        StagingArea staging = new StagingArea();
+        for (int i = 0; i < entries; i++) {
+            staging.put(fileName(i), Utils.sha1(Integer.toString(i)));
+        }
+        return staging;
+    }
+
+    /**
+     * Return the name of the I-th file of {@link #staging}.
+     */
+    static String fileName(int i) {
+        return "dir" + i / 100 + "/file" + i % 100;
+    }
+}
@@ -0,0 +1,75 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time {@link Utils#sha1} on contents and files of different sizes. {@link #digest} is the SHA-1
+ * of the same bytes without encoding it in hexadecimal, so the difference to {@link #sha1Bytes}
+ * is the cost of the encoding.
+ *
+ * @author hdon694
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HashBenchmark {
+    /**
+     * The number of bytes hashed.
+     */
+    @Param({"64", "4096", "1048576"})
+    public int size;
+
+    private byte[] content;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        content = new byte[size];
+        new Random(size).nextBytes(content);
+        file = File.createTempFile("gitlet-bench", ".bin");
+        Files.write(file.toPath(), content);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public String sha1Bytes() {
+        return Utils.sha1((Object) content);
+    }
+
+    @Benchmark
+    public String sha1File() {
+        return Utils.sha1(file);
+    }
+
+    @Benchmark
+    public byte[] digest() throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("SHA-1").digest(content);
+    }
+}
@@ -0,0 +1,101 @@
+package gitlet;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time the search for the lowest common ancestor of a merge, as {@code merge} does it, on
+ * histories of different depths and shapes:
+ * <ul>
+ *     <li>linear -- two branches of DEPTH commits from the initial commit, which is the LCA.</li>
+ *     <li>merged -- the same, but every 10th commit of the first branch merges a side commit
+ *     made on its parent, so the walk meets many commits by two paths.</li>
+ *     <li>crisscross -- two branches of DEPTH commits, each merging the previous commit of the
+ *     other at every step, so there are two LCAs of equal generation.</li>
+ * </ul>
+ * With {@code graph} the commit-graph is written first, as {@code pack} does; without it the
+ * parents are read from the commit objects.
+ *
+ * @author hdon694
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MergeBaseBenchmark {
+    /**
+     * The number of commits of each branch.
+     */
+    @Param({"100", "1000", "10000"})
+    public int depth;
+
+    @Param({"linear", "merged", "crisscross"})
+    public String topology;
+
+    @Param({"true", "false"})
+    public boolean graph;
+
+    private String tipA;
+    private String tipB;
+    private int time;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchRepo.init();
+        String root = Branch.readFromFile("master").getCommitHash();
+        String a = root;
+        String b = root;
+        for (int i = 1; i <= depth; i++) {
+            switch (topology) {
+                case "linear":
+                    a = commit(a, null);
+                    b = commit(b, null);
+                    break;
+                case "merged":
+                    a = commit(a, i % 10 == 0 ? commit(a, null) : null);
+                    b = commit(b, null);
+                    break;
+                case "crisscross":
+                    String previousA = a;
+                    a = commit(a, b);
+                    b = commit(b, previousA);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown topology " + topology);
+            }
+        }
+        tipA = a;
+        tipB = b;
+        if (graph) {
+            CommitGraph.write();
+        }
+    }
+
+    private String commit(String parent, String secondParent) {
+        time++;
+        Commit commit = new Commit(new StagingArea(), new Date(time * 1000L), "commit " + time,
+                parent, secondParent);
+        commit.saveCommitToFile();
+        return commit.getHash();
+    }
+
+    @Benchmark
+    public String mergeBase() {
+        return CommitGraph.load().mergeBase(tipA, tipB);
+    }
+}
@@ -0,0 +1,84 @@
+package gitlet;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time the operations on an index of different sizes: serializing it, saving it to and reading
+ * it from ".gitlet/index", comparing it with a commit, and updating and looking up entries.
+ *
+ * @author hdon694
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StagingBenchmark {
+    /**
+     * The number of files in the index.
+     */
+    @Param({"10", "1000", "100000"})
+    public int entries;
+
+    private StagingArea staging;
+    private Commit commit;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchRepo.init();
+        staging = BenchRepo.staging(entries);
+        staging.saveStagingToFile();
+        commit = new Commit(BenchRepo.staging(entries), new Date(), "bench", null);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return Utils.serialize(staging);
+    }
+
+    @Benchmark
+    public void save() {
+        staging.saveStagingToFile();
+    }
+
+    @Benchmark
+    public StagingArea read() {
+        return StagingArea.readFromFile();
+    }
+
+    @Benchmark
+    public boolean hasSameIndex() {
+        return commit.hasSameIndex(staging);
+    }
+
+    /**
+     * Stage a new hash for one file, as {@code add} of a modified file does.
+     */
+    @Benchmark
+    public void put() {
+        next = (next + 1) % entries;
+        staging.put(BenchRepo.fileName(next), Utils.sha1(Integer.toString(-next)));
+    }
+
+    @Benchmark
+    public String lookup() {
+        next = (next + 1) % entries;
+        return staging.getFileHash(BenchRepo.fileName(next));
+    }
+}
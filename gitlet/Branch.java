@@ -2,7 +2,6 @@ package gitlet;
 
 import java.io.File;
 
-import static gitlet.Utils.readContentsAsString;
 import static gitlet.Utils.writeContents;
 
 /**
@@ -75,18 +74,19 @@ public class Branch {
             Repository.BRANCH_DIR.mkdir();
         }
         writeContents(branchFile, this.commitHash);
+        RepoContext.get().setRef(name, commitHash);
     }
 
     /**
      * Return the Branch instance by a specified branch name. This method will read the saved
-     * branch file.
+     * branch file, at most once per run through the {@link RepoContext}.
      *
      * @param branchName the branch name.
      * @return the Branch instance specified by branch name.
      */
     public static Branch readFromFile(String branchName) {
         Branch b = new Branch(branchName);
-        b.setCommitHash(readContentsAsString(b.getBranchFile()));
+        b.setCommitHash(RepoContext.get().ref(branchName));
         return b;
     }
 
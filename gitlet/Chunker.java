@@ -0,0 +1,170 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Split a large file into content-defined chunks, and encode the manifest that lists the chunks
+ * of a chunked blob.
+ * <p>
+ * Cut points are chosen with a Gear rolling hash: {@code h = (h << 1) + GEAR[byte]}. The top
+ * bits of h depend only on the last 64 bytes, so a chunk ends wherever those bits are all zero,
+ * which happens about once every AVERAGE bytes. Because the cut points depend on the content and
+ * not on the offset, inserting one byte into a large file changes one or two chunks only, and
+ * every other chunk is stored once and shared by all blobs that contain it.
+ * <p>
+ * The manifest starts with MAGIC, then the number of chunks, then the 20-byte id and the length
+ * of every chunk in order. Numbers are variable-length integers.
+ *
+ * @author hdon694
+ */
+class Chunker {
+    /**
+     * Header of a manifest. Full blobs that start with a NUL byte are stored behind a header of
+     * their own, so this cannot be mistaken for the start of a full blob.
+     */
+    private static final byte[] MAGIC = {0, 'G', 'L', 'M'};
+    /**
+     * Smallest chunk, except for the last chunk of a file.
+     */
+    static final int MIN_SIZE = 2 * 1024;
+    /**
+     * Expected chunk size. Must be a power of two.
+     */
+    static final int AVERAGE = 8 * 1024;
+    /**
+     * Largest chunk.
+     */
+    static final int MAX_SIZE = 64 * 1024;
+    /**
+     * A cut point is where these top bits of the rolling hash are all zero.
+     */
+    private static final long MASK =
+            (long) (AVERAGE - 1) << (Long.SIZE - Integer.numberOfTrailingZeros(AVERAGE));
+    /**
+     * Random value of every byte for the Gear hash. The seed is fixed, so chunk boundaries are
+     * the same across runs and machines.
+     */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(61);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * The content being split.
+     */
+    private final InputStream in;
+    /**
+     * The bytes of the chunk being read.
+     */
+    private final byte[] buffer = new byte[MAX_SIZE];
+
+    /**
+     * Split the content of IN. IN should be buffered, since it is read byte by byte.
+     *
+     * @param in the content to split.
+     */
+    Chunker(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Return the next chunk, or null at the end of the content.
+     *
+     * @return the bytes of the next chunk, or null.
+     * @throws IOException if reading fails.
+     */
+    byte[] next() throws IOException {
+        long h = 0;
+        int length = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            buffer[length++] = (byte) b;
+            h = (h << 1) + GEAR[b];
+            if (length == MAX_SIZE || (length >= MIN_SIZE && (h & MASK) == 0)) {
+                break;
+            }
+        }
+        return length == 0 ? null : Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Check if the stored bytes of a blob are a manifest.
+     *
+     * @param stored the stored bytes of a blob, or at least their first 4 bytes.
+     * @return true if the bytes are a manifest.
+     */
+    static boolean isManifest(byte[] stored) {
+        return stored.length >= MAGIC.length
+                && Arrays.equals(stored, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    /**
+     * Encode the manifest of a blob made of the given chunks.
+     *
+     * @param chunkHashes the hashes of the chunks, in order.
+     * @param lengths     the length of every chunk.
+     * @return the stored manifest.
+     */
+    static byte[] manifest(List<String> chunkHashes, List<Integer> lengths) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(MAGIC);
+        Utils.writeVarint(out, chunkHashes.size());
+        for (int i = 0; i < chunkHashes.size(); i++) {
+            out.writeBytes(PackFile.fromHex(chunkHashes.get(i)));
+            Utils.writeVarint(out, lengths.get(i));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Read the chunk hashes of a stored manifest one at a time, so that the manifest of a huge
+     * file is never held in memory.
+     */
+    static class ManifestReader {
+        /**
+         * The stored manifest, positioned at the next chunk.
+         */
+        private final InputStream in;
+        /**
+         * Number of chunks not read yet.
+         */
+        private long remaining;
+
+        /**
+         * Start reading the manifest IN, positioned at its header.
+         *
+         * @param in the stored manifest.
+         * @throws IOException if reading fails.
+         */
+        ManifestReader(InputStream in) throws IOException {
+            this.in = in;
+            in.skipNBytes(MAGIC.length);
+            this.remaining = Utils.readVarint(in);
+        }
+
+        /**
+         * Return the hash of the next chunk, or null after the last chunk.
+         *
+         * @return the 40 length hash of the next chunk, or null.
+         * @throws IOException if reading fails.
+         */
+        String next() throws IOException {
+            if (remaining == 0) {
+                return null;
+            }
+            remaining--;
+            String chunkHash = PackFile.toHex(in.readNBytes(20));
+            Utils.readVarint(in);
+            return chunkHash;
+        }
+    }
+}
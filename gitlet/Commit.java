@@ -1,19 +1,53 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import static gitlet.Utils.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * Represents a gitlet commit object. Helper to read and write Commit file/object and get staging
  * file from commit.
+ * <p>
+ * A commit is stored in a canonical binary format, and its hash is the SHA-1 of those bytes.
+ * Fields are written in a fixed order, so the same commit always has the same bytes on any JVM:
+ * <ol>
+ *     <li>MAGIC and the format VERSION byte.</li>
+ *     <li>The date, as 8 bytes of milliseconds since the epoch.</li>
+ *     <li>The number of parents (0, 1 or 2) and the 20-byte id of each.</li>
+ *     <li>The length of the message and the message in UTF-8.</li>
+ *     <li>The 20-byte id of the root {@link Tree} of the files.</li>
+ * </ol>
+ * Lengths are variable-length integers. The files are only read from the trees when they are
+ * first asked for, so walking the history reads no trees at all.
+ * <p>
+ * Version 1 commits list every file in the commit itself instead of a tree: the number of
+ * files, then the length of every name, the name in UTF-8 and the 20-byte id of its blob, sorted
+ * by name. Commits written before any of this format are Java serialized objects. Both are still
+ * read, and keep the hash they were saved under.
  *
  * @author hdon694
  */
 public class Commit implements Serializable {
+    /**
+     * Fixed, so that commits saved with Java serialization can still be read.
+     */
+    private static final long serialVersionUID = -9080154128651611476L;
+    /**
+     * Header of an encoded commit. Java serialized commits start with 0xACED instead.
+     */
+    private static final byte[] MAGIC = {0, 'G', 'L', 'C'};
+    /**
+     * Version of the encoding written by this class.
+     */
+    private static final int VERSION = 2;
     /**
      * List all instance variables of the Commit class here with a useful
      * comment above them describing what that variable represents and how that
@@ -21,9 +55,13 @@ public class Commit implements Serializable {
      */
 
     /**
-     * The staging snap in this Commit.
+     * The staging snap in this Commit, read from the tree on first use.
      */
     private StagingArea staging;
+    /**
+     * The id of the root tree, known once the commit is saved or read.
+     */
+    private transient String tree;
     /**
      * The time stamp of this Commit. Using The (Unix) Epoch.
      */
@@ -42,6 +80,11 @@ public class Commit implements Serializable {
      * For merge commits, they have two parent commits.
      */
     private String secondParent;
+    /**
+     * The hash of this commit, computed once when the commit is saved or first asked for, and
+     * set from the file name when the commit is read.
+     */
+    private transient String hash;
 
     public Commit(StagingArea staging, Date date, String message, String parent) {
         this(staging, date, message, parent, null);
@@ -60,30 +103,157 @@ public class Commit implements Serializable {
      * Save commit instance to file under COMMITS_DIR directory, file name is the hash of instance.
      */
     public void saveCommitToFile() {
-
-        if (!Repository.COMMITS_DIR.exists()) {
-            Repository.COMMITS_DIR.mkdir();
-        }
-        writeObject(join(Repository.COMMITS_DIR, getHash()), this);
+        tree = Tree.save(files());
+        byte[] bytes = encode();
+        hash = Utils.sha1((Object) bytes);
+        ObjectStore.writeCommit(hash, bytes);
+        CommitMeta.append(hash, parent, secondParent, date, message);
+        CommitGraph.add(hash, parent, secondParent);
     }
 
     /**
-     * Return hash of This Commit instance.
+     * Return hash of This Commit instance. The commit is encoded at most once to compute it.
      *
      * @return hash of This Commit instance.
      */
     public String getHash() {
-        return Utils.sha1((Object) serialize(this));
+        if (hash == null) {
+            hash = Utils.sha1((Object) encode());
+        }
+        return hash;
     }
 
     /**
-     * Read commit by its hash from COMMITS_DIR directory.
+     * Read commit by its hash, through the commit cache of the {@link RepoContext}.
      *
      * @param hash The 40 length hash string of that commit object
      * @return A Commit object
      */
     public static Commit readFromFile(String hash) {
-        return readObject(join(Repository.COMMITS_DIR, hash), Commit.class);
+        return RepoContext.get().commit(hash);
+    }
+
+    /**
+     * Read commit by its hash, from a pack or from COMMITS_DIR directory.
+     *
+     * @param hash The 40 length hash string of that commit object
+     * @return A Commit object
+     */
+    static Commit load(String hash) {
+        long start = Trace.start();
+        byte[] bytes = ObjectStore.readCommit(hash);
+        Commit commit;
+        if (bytes.length >= 2 && bytes[0] == (byte) 0xAC && bytes[1] == (byte) 0xED) {
+            commit = deserialize(bytes, Commit.class);
+        } else {
+            commit = decode(bytes);
+        }
+        // The file name is the hash, also for commits saved with Java serialization.
+        commit.hash = hash;
+        Trace.record(Trace.Phase.COMMIT_READ, start, bytes.length);
+        return commit;
+    }
+
+    /**
+     * Return the canonical encoding of this commit.
+     *
+     * @return the bytes of this commit.
+     */
+    byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(MAGIC);
+        out.write(VERSION);
+        out.writeBytes(ByteBuffer.allocate(8).putLong(date.getTime()).array());
+        out.write(parent == null ? 0 : secondParent == null ? 1 : 2);
+        if (parent != null) {
+            out.writeBytes(PackFile.fromHex(parent));
+        }
+        if (secondParent != null) {
+            out.writeBytes(PackFile.fromHex(secondParent));
+        }
+        writeString(out, message);
+        if (tree == null) {
+            tree = Tree.hashOf(files());
+        }
+        out.writeBytes(PackFile.fromHex(tree));
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode a commit written by {@link #encode()}.
+     *
+     * @param bytes the bytes of the commit.
+     * @return the commit.
+     */
+    static Commit decode(byte[] bytes) {
+        if (bytes.length <= MAGIC.length
+                || !Arrays.equals(bytes, 0, MAGIC.length, MAGIC, 0, MAGIC.length)) {
+            throw error("Not a commit.");
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes, MAGIC.length, bytes.length - MAGIC.length);
+        int version = in.get();
+        if (version != 1 && version != VERSION) {
+            throw error("Unsupported commit format version %d.", version);
+        }
+        Date date = new Date(in.getLong());
+        int parents = in.get();
+        String parent = parents > 0 ? readId(in) : null;
+        String secondParent = parents > 1 ? readId(in) : null;
+        String message = readString(in);
+        if (version == VERSION) {
+            Commit commit = new Commit(null, date, message, parent, secondParent);
+            commit.tree = readId(in);
+            return commit;
+        }
+        StagingArea staging = new StagingArea();
+        long files = readVarint(in);
+        for (long i = 0; i < files; i++) {
+            String fileName = readString(in);
+            staging.put(fileName, readId(in));
+        }
+        return new Commit(staging, date, message, parent, secondParent);
+    }
+
+    /**
+     * Return the staging snap of this commit, reading it from the tree on first use.
+     */
+    private StagingArea staging() {
+        if (staging == null) {
+            staging = new StagingArea();
+            for (Map.Entry<String, String> entry : Tree.read(tree).entrySet()) {
+                staging.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return staging;
+    }
+
+    /**
+     * Return the blob id of every file of this commit by path.
+     */
+    private TreeMap<String, String> files() {
+        TreeMap<String, String> files = new TreeMap<>();
+        for (Map.Entry<String, String> entry : staging().fileEntrySet()) {
+            files.put(entry.getKey(), entry.getValue());
+        }
+        return files;
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        writeVarint(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[(int) readVarint(in)];
+        in.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static String readId(ByteBuffer in) {
+        byte[] id = new byte[20];
+        in.get(id);
+        return PackFile.toHex(id);
     }
 
     /**
@@ -93,7 +263,7 @@ public class Commit implements Serializable {
      * @return true if the commit has the same index as the given index, false otherwise
      */
     public boolean hasSameIndex(StagingArea index) {
-        return staging.equals(index);
+        return staging().equals(index);
     }
 
     /**
@@ -103,7 +273,7 @@ public class Commit implements Serializable {
      * @return true if the commit includes the given file, false otherwise
      */
     public boolean containsFile(String fileName) {
-        return staging.containsFile(fileName);
+        return staging().containsFile(fileName);
     }
 
     /**
@@ -113,7 +283,7 @@ public class Commit implements Serializable {
      * @return The hash of the given file name
      */
     public String getFileHash(String fileName) {
-        return staging.getFileHash(fileName);
+        return staging().getFileHash(fileName);
     }
 
     /**
@@ -122,7 +292,7 @@ public class Commit implements Serializable {
      * @return The set of file names in the staging area
      */
     public Set<String> getFileNames() {
-        return staging.getFileNames();
+        return staging().getFileNames();
     }
 
     /**
@@ -131,14 +301,7 @@ public class Commit implements Serializable {
      * @return A set view of the mappings contained in this staging area.
      */
     public Set<Map.Entry<String, String>> fileEntrySet() {
-        return staging.fileEntrySet();
-    }
-
-    /**
-     * Save the index of staging to file.
-     */
-    public void saveStagingToFile() {
-        staging.saveStagingToFile();
+        return staging().fileEntrySet();
     }
 
     /**
@@ -162,6 +325,24 @@ public class Commit implements Serializable {
         return null;
     }
 
+    /**
+     * Get the message of this commit.
+     *
+     * @return The message of this commit
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Get the date of this commit.
+     *
+     * @return The date of this commit
+     */
+    public Date getDate() {
+        return date;
+    }
+
     /**
      * Check if this commit is the initial commit.
      *
@@ -209,10 +390,26 @@ public class Commit implements Serializable {
      */
     @Override
     public String toString() {
+        return format(getHash(), parent, secondParent, date, message);
+    }
+
+    /**
+     * Return the information of a commit as {@link #toString()} does, from its fields alone.
+     *
+     * @param hash         the hash of the commit.
+     * @param parent       the first parent, or null.
+     * @param secondParent the second parent, or null.
+     * @param date         the date of the commit.
+     * @param message      the message of the commit.
+     * @return The information of the commit
+     */
+    static String format(String hash, String parent, String secondParent, Date date,
+                         String message) {
         String parentsInfo =
-                isMerged() ? String.format("Merge: %.7s %.7s%n", parent, secondParent) : "";
+                secondParent != null ? String.format("Merge: %.7s %.7s%n", parent, secondParent)
+                        : "";
         String dateFormatted = String.format("%1$ta %1$tb %1$td %1$tT %1$tY %1$tz", date);
-        return String.format("commit %s%n" + parentsInfo + "Date: %s%n" + "%s%n", getHash(),
+        return String.format("commit %s%n" + parentsInfo + "Date: %s%n" + "%s%n", hash,
                 dateFormatted, message);
     }
 
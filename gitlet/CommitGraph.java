@@ -0,0 +1,415 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import static gitlet.Utils.join;
+
+/**
+ * Represent the commit-graph file ".gitlet/commit-graph": the parents and the generation number
+ * of every commit, in fixed-width rows, so that history walks need not read commit objects.
+ * <p>
+ * The file holds magic "GCGR", version, the number of commits, a 256-entry fan-out table and the
+ * sorted 20-byte commit ids, like a pack index. Then comes one row per commit, in id order: the
+ * row number of the first parent, of the second parent (NONE if missing), and the generation
+ * number. The generation of a root commit is 1, and of any other commit one more than the
+ * largest generation of its parents, so a commit always has a larger generation than all of its
+ * ancestors.
+ * <p>
+ * The file is rewritten by {@code pack}. Commits made since then are in the journal
+ * ".gitlet/commit-graph.log": saving a commit appends its 20-byte id, the ids of its two parents
+ * (zeros if missing) and its generation, and once it holds JOURNAL_LIMIT commits the journal is
+ * merged into the file. So a merge-base search reads no commit objects, and visits only the
+ * commits between the two tips, whether or not the repository was packed.
+ * Commits in neither file, made before the journal existed, get their parents from the commit
+ * objects and their generation computed on demand.
+ *
+ * @author hdon694
+ */
+class CommitGraph {
+    /**
+     * The commit-graph file -- ".gitlet/commit-graph"
+     */
+    static final File FILE = join(Repository.GITLET_DIR, "commit-graph");
+    /**
+     * The commits saved since the file was written -- ".gitlet/commit-graph.log"
+     */
+    static final File JOURNAL = join(Repository.GITLET_DIR, "commit-graph.log");
+
+    private static final int MAGIC = 0x47434752; // "GCGR"
+    private static final int VERSION = 1;
+    private static final int HEADER = 12;
+    private static final int FANOUT_BYTES = 256 * 4;
+    private static final int ID_BYTES = 20;
+    private static final int ROW_BYTES = 12;
+    private static final int JOURNAL_ENTRY_BYTES = 3 * ID_BYTES + 4;
+    /**
+     * Number of journal entries that triggers a merge into the file.
+     */
+    private static final int JOURNAL_LIMIT = 1024;
+    /**
+     * A missing parent in the journal.
+     */
+    private static final String ZERO_ID = "0".repeat(2 * ID_BYTES);
+    /**
+     * Row number of a missing parent or of a commit that is not in the file.
+     */
+    static final int NONE = -1;
+
+    /**
+     * Flags of the merge-base search: reachable from the first tip, from the second tip, or both.
+     */
+    private static final int FROM_A = 1;
+    private static final int FROM_B = 2;
+    private static final int FROM_BOTH = FROM_A | FROM_B;
+
+    /**
+     * The mapped file, or null if there is no commit-graph yet.
+     */
+    private final ByteBuffer graph;
+    /**
+     * The number of commits in the file.
+     */
+    private final int count;
+    /**
+     * Parents of commits that are not in the file, from the journal or the object store.
+     */
+    private final Map<String, String[]> extraParents = new HashMap<>();
+    /**
+     * Generations of commits that are not in the file, from the journal or computed on demand.
+     */
+    private final Map<String, Integer> extraGenerations = new HashMap<>();
+
+    private CommitGraph(ByteBuffer graph) {
+        this.graph = graph;
+        this.count = graph == null ? 0 : graph.getInt(8);
+    }
+
+    /**
+     * Open the commit-graph of this repository, with the commits of its journal. A missing file
+     * gives an empty graph, in which every lookup falls back to the journal and then to the
+     * commit objects.
+     *
+     * @return the commit-graph.
+     */
+    static CommitGraph load() {
+        CommitGraph result;
+        if (!FILE.isFile()) {
+            result = new CommitGraph(null);
+        } else {
+            ByteBuffer graph = PackFile.map(FILE);
+            if (graph.getInt(0) != MAGIC || graph.getInt(4) != VERSION) {
+                throw Utils.error("Corrupt commit-graph.");
+            }
+            result = new CommitGraph(graph);
+        }
+        result.readJournal();
+        return result;
+    }
+
+    /**
+     * Record a newly saved commit in the journal, with its generation. What an interrupted
+     * append left at the end of the journal is cut off first, so the entries stay aligned.
+     *
+     * @param hash         the 40 length hash of the commit.
+     * @param parent       the hash of its first parent, or null.
+     * @param secondParent the hash of its second parent, or null.
+     */
+    static void add(String hash, String parent, String secondParent) {
+        CommitGraph graph = load();
+        int generation = 1;
+        for (String p : new String[]{parent, secondParent}) {
+            if (p != null) {
+                generation = Math.max(generation, graph.generation(p) + 1);
+            }
+        }
+        ByteBuffer entry = ByteBuffer.allocate(JOURNAL_ENTRY_BYTES);
+        entry.put(PackFile.fromHex(hash));
+        entry.put(parent == null ? new byte[ID_BYTES] : PackFile.fromHex(parent));
+        entry.put(secondParent == null ? new byte[ID_BYTES] : PackFile.fromHex(secondParent));
+        entry.putInt(generation);
+        long entries;
+        try (FileChannel channel = FileChannel.open(JOURNAL.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            long keep = channel.size() - channel.size() % JOURNAL_ENTRY_BYTES;
+            channel.truncate(keep);
+            channel.position(keep);
+            channel.write(entry.flip());
+            entries = keep / JOURNAL_ENTRY_BYTES + 1;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (entries >= JOURNAL_LIMIT) {
+            // The bitmaps only match the graph they were built for, so they are rebuilt too.
+            write();
+            Reachability.write(load());
+        }
+    }
+
+    /**
+     * Load the parents and generations of the commits in the journal. An entry cut short by an
+     * interrupted append is ignored; the next append cuts it off.
+     */
+    private void readJournal() {
+        if (!JOURNAL.isFile()) {
+            return;
+        }
+        ByteBuffer journal = ByteBuffer.wrap(Utils.readContents(JOURNAL));
+        byte[] id = new byte[ID_BYTES];
+        while (journal.remaining() >= JOURNAL_ENTRY_BYTES) {
+            journal.get(id);
+            String hash = PackFile.toHex(id);
+            List<String> parents = new ArrayList<>(2);
+            for (int i = 0; i < 2; i++) {
+                journal.get(id);
+                String parentHash = PackFile.toHex(id);
+                if (!parentHash.equals(ZERO_ID)) {
+                    parents.add(parentHash);
+                }
+            }
+            extraParents.put(hash, parents.toArray(new String[0]));
+            extraGenerations.put(hash, journal.getInt());
+        }
+    }
+
+    /**
+     * Rewrite the commit-graph with every commit of the repository, and empty the journal.
+     */
+    static void write() {
+        List<String> ids = ObjectStore.commitIds();
+        Map<String, Integer> rows = new HashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            rows.put(ids.get(i), i);
+        }
+        // The graph being replaced still speeds up the generation numbers.
+        CommitGraph old = load();
+        int[] fanout = new int[256];
+        for (String id : ids) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)]++;
+        }
+
+        File temp = join(Repository.GITLET_DIR, "commit-graph.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(ids.size());
+            int total = 0;
+            for (int n : fanout) {
+                total += n;
+                out.writeInt(total);
+            }
+            for (String id : ids) {
+                out.write(PackFile.fromHex(id));
+            }
+            for (String id : ids) {
+                String[] parents = old.parents(id);
+                out.writeInt(parents.length > 0 ? rows.get(parents[0]) : NONE);
+                out.writeInt(parents.length > 1 ? rows.get(parents[1]) : NONE);
+                out.writeInt(old.generation(id));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), FILE.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(JOURNAL.toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return the parents of a commit: none for the initial commit, two for a merge commit.
+     *
+     * @param hash the 40 length hash of the commit.
+     * @return the hashes of its parents, first parent first.
+     */
+    String[] parents(String hash) {
+        int row = find(hash);
+        if (row != NONE) {
+            int first = rowInt(row, 0);
+            int second = rowInt(row, 1);
+            if (first == NONE) {
+                return new String[0];
+            }
+            return second == NONE ? new String[]{idAt(first)}
+                    : new String[]{idAt(first), idAt(second)};
+        }
+        return extraParents.computeIfAbsent(hash, h -> {
+            Commit commit = Commit.readFromFile(h);
+            if (commit.isInitCommit()) {
+                return new String[0];
+            }
+            return commit.isMerged()
+                    ? new String[]{commit.getParent(), commit.getSecondParent()}
+                    : new String[]{commit.getParent()};
+        });
+    }
+
+    /**
+     * Return the generation number of a commit. For a commit that is not in the file, it is
+     * computed from its parents, walking down until commits that are in the file.
+     *
+     * @param hash the 40 length hash of the commit.
+     * @return the generation number, at least 1.
+     */
+    int generation(String hash) {
+        int row = find(hash);
+        if (row != NONE) {
+            return rowInt(row, 2);
+        }
+        Integer known = extraGenerations.get(hash);
+        if (known != null) {
+            return known;
+        }
+        // Iterative depth-first walk: a commit is done once all its parents are done.
+        Deque<String> visitStack = new ArrayDeque<>();
+        visitStack.push(hash);
+        while (!visitStack.isEmpty()) {
+            String current = visitStack.peek();
+            int generation = 1;
+            boolean ready = true;
+            for (String parent : parents(current)) {
+                Integer parentGeneration = knownGeneration(parent);
+                if (parentGeneration == null) {
+                    visitStack.push(parent);
+                    ready = false;
+                } else {
+                    generation = Math.max(generation, parentGeneration + 1);
+                }
+            }
+            if (ready) {
+                extraGenerations.put(current, generation);
+                visitStack.pop();
+            }
+        }
+        return extraGenerations.get(hash);
+    }
+
+    /**
+     * Return the best common ancestor of two commits: the one with the largest generation, so
+     * no other common ancestor is a descendant of it.
+     * <p>
+     * Commits are visited from the largest generation down, marking each with the tips it is
+     * reachable from. Since a commit comes after all its descendants in this order, its marks
+     * are complete when it is visited, and the first commit reachable from both tips is the
+     * answer. Only the commits between the two tips and their merge base are visited.
+     *
+     * @param commitA the hash of one commit.
+     * @param commitB the hash of the other commit.
+     * @return the hash of the merge base, or null if the commits share no history.
+     */
+    String mergeBase(String commitA, String commitB) {
+        Map<String, Integer> flags = new HashMap<>();
+        PriorityQueue<String> queue = new PriorityQueue<>(
+                Comparator.comparingInt(this::generation).reversed()
+                        .thenComparing(Comparator.naturalOrder()));
+        flags.put(commitA, FROM_A);
+        flags.merge(commitB, FROM_B, (a, b) -> a | b);
+        queue.add(commitA);
+        if (!commitB.equals(commitA)) {
+            queue.add(commitB);
+        }
+        while (!queue.isEmpty()) {
+            String current = queue.poll();
+            int currentFlags = flags.get(current);
+            if (currentFlags == FROM_BOTH) {
+                return current;
+            }
+            for (String parent : parents(current)) {
+                int parentFlags = flags.getOrDefault(parent, 0);
+                if ((parentFlags | currentFlags) != parentFlags) {
+                    if (parentFlags == 0) {
+                        queue.add(parent);
+                    }
+                    flags.put(parent, parentFlags | currentFlags);
+                }
+            }
+        }
+        return null;
+    }
+
+    private Integer knownGeneration(String hash) {
+        int row = find(hash);
+        return row != NONE ? Integer.valueOf(rowInt(row, 2)) : extraGenerations.get(hash);
+    }
+
+    /**
+     * Return the number of commits in the file.
+     *
+     * @return the number of rows.
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Return the row of a commit in the file, or NONE. Rows are numbered from 0 in id order.
+     *
+     * @param hash the 40 length hash of the commit.
+     * @return the row of the commit, or NONE if it is not in the file.
+     */
+    int find(String hash) {
+        if (count == 0) {
+            return NONE;
+        }
+        byte[] key = PackFile.fromHex(hash);
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : graph.getInt(HEADER + 4 * (first - 1));
+        int hi = graph.getInt(HEADER + 4 * first) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareId(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return NONE;
+    }
+
+    private int compareId(int row, byte[] key) {
+        int position = HEADER + FANOUT_BYTES + ID_BYTES * row;
+        for (int i = 0; i < ID_BYTES; i++) {
+            int cmp = Integer.compare(graph.get(position + i) & 0xff, key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private String idAt(int row) {
+        byte[] id = new byte[ID_BYTES];
+        graph.get(HEADER + FANOUT_BYTES + ID_BYTES * row, id);
+        return PackFile.toHex(id);
+    }
+
+    /**
+     * Return the field-th int of a row: first parent, second parent or generation.
+     */
+    private int rowInt(int row, int field) {
+        return graph.getInt(HEADER + FANOUT_BYTES + ID_BYTES * count + ROW_BYTES * row
+                + 4 * field);
+    }
+}
@@ -0,0 +1,191 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import static gitlet.Utils.join;
+
+/**
+ * Resolve abbreviated commit ids with a sorted index of all commit ids, instead of listing and
+ * scanning every commit.
+ * <p>
+ * The index has two parts, like a log-structured merge tree:
+ * <ul>
+ *     <li>".gitlet/commit-index" -- magic "GCIX", version, the number of ids, a 256-entry fan-out
+ *     table and the sorted 20-byte ids. A prefix is found by binary search between the fan-out
+ *     bounds of its first byte.</li>
+ *     <li>".gitlet/commit-index.log" -- the 20-byte ids of the commits saved since, in the order
+ *     they were saved. Saving a commit appends to it, and once it holds JOURNAL_LIMIT ids it is
+ *     merged into the sorted file.</li>
+ * </ul>
+ * A repository without the sorted file gets it built from all its commits on first use.
+ *
+ * @author hdon694
+ */
+class CommitIndex {
+    /**
+     * The sorted id file -- ".gitlet/commit-index"
+     */
+    static final File FILE = join(Repository.GITLET_DIR, "commit-index");
+    /**
+     * The ids saved since the sorted file was written -- ".gitlet/commit-index.log"
+     */
+    static final File JOURNAL = join(Repository.GITLET_DIR, "commit-index.log");
+
+    private static final int MAGIC = 0x47434958; // "GCIX"
+    private static final int VERSION = 1;
+    private static final int HEADER = 12;
+    private static final int FANOUT_BYTES = 256 * 4;
+    private static final int ID_BYTES = 20;
+    /**
+     * Number of journal entries that triggers a merge into the sorted file.
+     */
+    private static final int JOURNAL_LIMIT = 1024;
+
+    /**
+     * Record a newly saved commit.
+     *
+     * @param hash the 40 length hash of the commit.
+     */
+    static void add(String hash) {
+        try (OutputStream out = Files.newOutputStream(JOURNAL.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            out.write(PackFile.fromHex(hash));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (JOURNAL.length() >= (long) JOURNAL_LIMIT * ID_BYTES) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Return the ids of the commits whose hash starts with PREFIX, at most LIMIT of them, in
+     * lexicographic order.
+     *
+     * @param prefix the abbreviated id, in hexadecimal, at least 2 digits.
+     * @param limit  the largest number of ids to return.
+     * @return the matching ids.
+     */
+    static List<String> resolve(String prefix, int limit) {
+        if (!FILE.isFile()) {
+            rebuild();
+        }
+        String lower = prefix.toLowerCase();
+        if (lower.length() < 2 || !lower.matches("[0-9a-f]+")) {
+            return List.of();
+        }
+        TreeSet<String> matches = new TreeSet<>();
+        ByteBuffer index = PackFile.map(FILE);
+        if (index.getInt(0) != MAGIC || index.getInt(4) != VERSION) {
+            throw Utils.error("Corrupt commit index.");
+        }
+        int first = Integer.parseInt(lower.substring(0, 2), 16);
+        // The first id not less than the prefix padded with zeros.
+        byte[] key = PackFile.fromHex((lower + "0".repeat(2 * ID_BYTES)).substring(0,
+                2 * ID_BYTES));
+        int lo = first == 0 ? 0 : index.getInt(HEADER + 4 * (first - 1));
+        int hi = index.getInt(HEADER + 4 * first);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareId(index, mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int end = index.getInt(HEADER + 4 * first);
+        for (int i = lo; i < end && matches.size() < limit; i++) {
+            String id = idAt(index, i);
+            if (!id.startsWith(lower)) {
+                break;
+            }
+            matches.add(id);
+        }
+        for (String id : journal()) {
+            if (id.startsWith(lower)) {
+                matches.add(id);
+            }
+        }
+        return new ArrayList<>(matches).subList(0, Math.min(limit, matches.size()));
+    }
+
+    /**
+     * Rewrite the sorted file with every commit of the repository, and empty the journal.
+     */
+    static void rebuild() {
+        List<String> ids = ObjectStore.commitIds();
+        int[] fanout = new int[256];
+        for (String id : ids) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)]++;
+        }
+        File temp = join(Repository.GITLET_DIR, "commit-index.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(ids.size());
+            int total = 0;
+            for (int n : fanout) {
+                total += n;
+                out.writeInt(total);
+            }
+            for (String id : ids) {
+                out.write(PackFile.fromHex(id));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), FILE.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(JOURNAL.toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return the ids in the journal.
+     */
+    private static List<String> journal() {
+        if (!JOURNAL.isFile()) {
+            return List.of();
+        }
+        byte[] bytes = Utils.readContents(JOURNAL);
+        String[] ids = new String[bytes.length / ID_BYTES];
+        for (int i = 0; i < ids.length; i++) {
+            byte[] id = new byte[ID_BYTES];
+            System.arraycopy(bytes, i * ID_BYTES, id, 0, ID_BYTES);
+            ids[i] = PackFile.toHex(id);
+        }
+        return List.of(ids);
+    }
+
+    private static int compareId(ByteBuffer index, int i, byte[] key) {
+        int position = HEADER + FANOUT_BYTES + ID_BYTES * i;
+        for (int j = 0; j < ID_BYTES; j++) {
+            int cmp = Integer.compare(index.get(position + j) & 0xff, key[j] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private static String idAt(ByteBuffer index, int i) {
+        byte[] id = new byte[ID_BYTES];
+        index.get(HEADER + FANOUT_BYTES + ID_BYTES * i, id);
+        return PackFile.toHex(id);
+    }
+}
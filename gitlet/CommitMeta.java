@@ -0,0 +1,416 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import static gitlet.Utils.join;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Keep the header of every commit -- hash, parents, date and message -- in column files, so that
+ * log and global-log print the history without opening a single commit object.
+ * <p>
+ * Commits are numbered in the order they were made, and every column of ".gitlet/commit-meta/"
+ * holds one value per commit in that order:
+ * <ul>
+ *     <li>"ids" -- the 20-byte id.</li>
+ *     <li>"parents" -- the numbers of the first and the second parent, 4 bytes each, NONE if
+ *     missing. A parent is always made before its children, so it has a smaller number.</li>
+ *     <li>"dates" -- the date, as 8 bytes of milliseconds since the epoch.</li>
+ *     <li>"message-ends" -- 8 bytes: where the message ends in "messages".</li>
+ *     <li>"messages" -- the messages in UTF-8, one after the other.</li>
+ * </ul>
+ * Saving a commit appends to every column, "ids" last: the number of commits is the number of
+ * ids, and what an interrupted append left in the other columns is cut off by the next one.
+ * A repository without the columns gets them built from all its commits on first use.
+ *
+ * @author hdon694
+ */
+class CommitMeta {
+    /**
+     * The column directory -- ".gitlet/commit-meta/"
+     */
+    static final File DIR = join(Repository.GITLET_DIR, "commit-meta");
+    /**
+     * Number of a missing parent or of a commit that has no header here.
+     */
+    static final int NONE = -1;
+
+    private static final String IDS = "ids";
+    private static final String PARENTS = "parents";
+    private static final String DATES = "dates";
+    private static final String MESSAGE_ENDS = "message-ends";
+    private static final String MESSAGES = "messages";
+    private static final int ID_BYTES = 20;
+
+    private final ByteBuffer ids;
+    private final ByteBuffer parents;
+    private final ByteBuffer dates;
+    private final ByteBuffer messageEnds;
+    private final ByteBuffer messages;
+    /**
+     * The number of commits.
+     */
+    private final int count;
+
+    private CommitMeta(File dir) {
+        ids = PackFile.map(join(dir, IDS));
+        parents = PackFile.map(join(dir, PARENTS));
+        dates = PackFile.map(join(dir, DATES));
+        messageEnds = PackFile.map(join(dir, MESSAGE_ENDS));
+        messages = PackFile.map(join(dir, MESSAGES));
+        count = ids.capacity() / ID_BYTES;
+    }
+
+    /**
+     * Open the commit headers of this repository, building them if there are none.
+     *
+     * @return the commit headers.
+     */
+    static CommitMeta load() {
+        if (!DIR.isDirectory()) {
+            rebuild();
+        }
+        return new CommitMeta(DIR);
+    }
+
+    /**
+     * Rewrite the columns with every commit of the repository.
+     *
+     * @return the commit headers.
+     */
+    static CommitMeta rebuild() {
+        // Parents first: a commit is added once all its parents are.
+        Map<String, Integer> rows = new HashMap<>();
+        List<Commit> order = new ArrayList<>();
+        for (String id : ObjectStore.commitIds()) {
+            Deque<String> visitStack = new ArrayDeque<>();
+            visitStack.push(id);
+            while (!visitStack.isEmpty()) {
+                String current = visitStack.peek();
+                if (rows.containsKey(current)) {
+                    visitStack.pop();
+                    continue;
+                }
+                Commit commit = Commit.readFromFile(current);
+                boolean ready = true;
+                for (String parent : new String[]{commit.getParent(), commit.getSecondParent()}) {
+                    if (parent != null && !rows.containsKey(parent)) {
+                        visitStack.push(parent);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    rows.put(current, order.size());
+                    order.add(commit);
+                    visitStack.pop();
+                }
+            }
+        }
+
+        File temp = join(Repository.GITLET_DIR, "commit-meta.tmp");
+        deleteColumns(temp);
+        temp.mkdir();
+        ByteBuffer idColumn = ByteBuffer.allocate(ID_BYTES * order.size());
+        ByteBuffer parentColumn = ByteBuffer.allocate(8 * order.size());
+        ByteBuffer dateColumn = ByteBuffer.allocate(8 * order.size());
+        ByteBuffer endColumn = ByteBuffer.allocate(8 * order.size());
+        List<byte[]> messageBytes = new ArrayList<>();
+        long end = 0;
+        for (Commit commit : order) {
+            byte[] message = commit.getMessage().getBytes(UTF_8);
+            end += message.length;
+            idColumn.put(PackFile.fromHex(commit.getHash()));
+            parentColumn.putInt(commit.getParent() == null ? NONE : rows.get(commit.getParent()));
+            parentColumn.putInt(commit.isMerged() ? rows.get(commit.getSecondParent()) : NONE);
+            dateColumn.putLong(commit.getDate().getTime());
+            endColumn.putLong(end);
+            messageBytes.add(message);
+        }
+        Utils.writeContents(join(temp, PARENTS), (Object) parentColumn.array());
+        Utils.writeContents(join(temp, DATES), (Object) dateColumn.array());
+        Utils.writeContents(join(temp, MESSAGE_ENDS), (Object) endColumn.array());
+        Utils.writeContents(join(temp, MESSAGES), messageBytes.toArray());
+        Utils.writeContents(join(temp, IDS), (Object) idColumn.array());
+        deleteColumns(DIR);
+        try {
+            Files.move(temp.toPath(), DIR.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return new CommitMeta(DIR);
+    }
+
+    /**
+     * Add the header of a newly saved commit. Nothing is done without columns, which are then
+     * built on first use. If a parent has no header, the columns are incomplete and are deleted,
+     * to be built again.
+     *
+     * @param hash         the hash of the commit.
+     * @param parent       the first parent, or null.
+     * @param secondParent the second parent, or null.
+     * @param date         the date of the commit.
+     * @param message      the message of the commit.
+     */
+    static void append(String hash, String parent, String secondParent, Date date,
+                       String message) {
+        if (!DIR.isDirectory()) {
+            return;
+        }
+        CommitMeta meta = new CommitMeta(DIR);
+        int parentRow = parent == null ? NONE : meta.rowOf(parent);
+        int secondRow = secondParent == null ? NONE : meta.rowOf(secondParent);
+        if (parent != null && parentRow == NONE || secondParent != null && secondRow == NONE) {
+            deleteColumns(DIR);
+            return;
+        }
+        int count = meta.count;
+        long end = count == 0 ? 0 : meta.messageEnds.getLong(8 * (count - 1));
+        byte[] messageBytes = message.getBytes(UTF_8);
+        appendColumn(MESSAGES, end, messageBytes);
+        appendColumn(MESSAGE_ENDS, 8L * count,
+                ByteBuffer.allocate(8).putLong(end + messageBytes.length).array());
+        appendColumn(DATES, 8L * count, ByteBuffer.allocate(8).putLong(date.getTime()).array());
+        appendColumn(PARENTS, 8L * count,
+                ByteBuffer.allocate(8).putInt(parentRow).putInt(secondRow).array());
+        appendColumn(IDS, (long) ID_BYTES * count, PackFile.fromHex(hash));
+    }
+
+    /**
+     * Return the number of commits.
+     *
+     * @return the number of commits with a header.
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Return the number of a commit, or NONE. Searched from the newest commit, since the
+     * commits asked for are mostly recent ones.
+     *
+     * @param hash the 40 length hash of the commit.
+     * @return the number of the commit, or NONE.
+     */
+    int rowOf(String hash) {
+        byte[] key = PackFile.fromHex(hash);
+        byte[] id = new byte[ID_BYTES];
+        for (int row = count - 1; row >= 0; row--) {
+            ids.get(ID_BYTES * row, id);
+            if (Arrays.equals(id, key)) {
+                return row;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Return the hash of commit ROW.
+     *
+     * @param row the number of the commit.
+     * @return the 40 length hash.
+     */
+    String id(int row) {
+        byte[] id = new byte[ID_BYTES];
+        ids.get(ID_BYTES * row, id);
+        return PackFile.toHex(id);
+    }
+
+    /**
+     * Return the number of the first parent of commit ROW, or NONE for the initial commit.
+     *
+     * @param row the number of the commit.
+     * @return the number of its first parent, or NONE.
+     */
+    int parent(int row) {
+        return parents.getInt(8 * row);
+    }
+
+    /**
+     * Return the commits from ROW back to the initial commit, following first parents. They are
+     * found one at a time, as the iterator is advanced.
+     *
+     * @param row the number of the newest commit.
+     * @return the numbers of the commits, newest first.
+     */
+    Iterator<Integer> firstParents(int row) {
+        return new Iterator<>() {
+            private int next = row;
+
+            @Override
+            public boolean hasNext() {
+                return next != NONE;
+            }
+
+            @Override
+            public Integer next() {
+                if (next == NONE) {
+                    throw new NoSuchElementException();
+                }
+                int current = next;
+                next = parent(current);
+                return current;
+            }
+        };
+    }
+
+    /**
+     * Return all commits in id order, as the object store lists them.
+     *
+     * @return the numbers of the commits, ordered by id.
+     */
+    Iterator<Integer> byId() {
+        TreeMap<String, Integer> rows = new TreeMap<>();
+        for (int row = 0; row < count; row++) {
+            rows.put(id(row), row);
+        }
+        return rows.values().iterator();
+    }
+
+    /**
+     * Return the information of commit ROW, exactly as {@link Commit#toString()} does.
+     *
+     * @param row the number of the commit.
+     * @return the information of the commit.
+     */
+    String format(int row) {
+        int first = parents.getInt(8 * row);
+        int second = parents.getInt(8 * row + 4);
+        return Commit.format(id(row), first == NONE ? null : id(first),
+                second == NONE ? null : id(second), date(row), message(row));
+    }
+
+    /**
+     * Return the information of commit ROW laid out by TEMPLATE, in which these placeholders are
+     * replaced and everything else is copied:
+     * <ul>
+     *     <li>%H -- the hash; %h -- its first 7 digits.</li>
+     *     <li>%P -- the hashes of the parents, separated by a space; %p -- their first 7
+     *     digits.</li>
+     *     <li>%ad -- the date, as log prints it.</li>
+     *     <li>%s -- the message.</li>
+     *     <li>%n -- a line separator; %% -- a percent sign.</li>
+     * </ul>
+     *
+     * @param row      the number of the commit.
+     * @param template the layout of the information.
+     * @return the information of the commit.
+     */
+    String format(int row, String template) {
+        StringBuilder out = new StringBuilder();
+        int i = 0;
+        while (i < template.length()) {
+            char c = template.charAt(i);
+            if (c != '%' || i + 1 == template.length()) {
+                out.append(c);
+                i++;
+                continue;
+            }
+            char placeholder = template.charAt(i + 1);
+            i += 2;
+            switch (placeholder) {
+                case 'H':
+                    out.append(id(row));
+                    break;
+                case 'h':
+                    out.append(id(row), 0, 7);
+                    break;
+                case 'P':
+                    out.append(parentIds(row, 40));
+                    break;
+                case 'p':
+                    out.append(parentIds(row, 7));
+                    break;
+                case 's':
+                    out.append(message(row));
+                    break;
+                case 'n':
+                    out.append(System.lineSeparator());
+                    break;
+                case '%':
+                    out.append('%');
+                    break;
+                case 'a':
+                    if (template.startsWith("d", i)) {
+                        out.append(String.format("%1$ta %1$tb %1$td %1$tT %1$tY %1$tz",
+                                date(row)));
+                        i++;
+                        break;
+                    }
+                    out.append(c).append(placeholder);
+                    break;
+                default:
+                    out.append(c).append(placeholder);
+            }
+        }
+        return out.toString();
+    }
+
+    private Date date(int row) {
+        return new Date(dates.getLong(8 * row));
+    }
+
+    private String message(int row) {
+        long start = row == 0 ? 0 : messageEnds.getLong(8 * (row - 1));
+        byte[] message = new byte[(int) (messageEnds.getLong(8 * row) - start)];
+        messages.get((int) start, message);
+        return new String(message, UTF_8);
+    }
+
+    /**
+     * Return the first LENGTH digits of the hash of every parent of commit ROW, separated by a
+     * space.
+     */
+    private String parentIds(int row, int length) {
+        StringBuilder ids = new StringBuilder();
+        for (int k = 0; k < 2; k++) {
+            int parentRow = parents.getInt(8 * row + 4 * k);
+            if (parentRow != NONE) {
+                ids.append(k > 0 ? " " : "").append(id(parentRow), 0, length);
+            }
+        }
+        return ids.toString();
+    }
+
+    /**
+     * Cut the column NAME to KEEP bytes, dropping what an interrupted append left behind, and
+     * append BYTES.
+     */
+    private static void appendColumn(String name, long keep, byte[] bytes) {
+        try (FileChannel channel = FileChannel.open(join(DIR, name).toPath(),
+                StandardOpenOption.WRITE)) {
+            channel.truncate(keep);
+            channel.position(keep);
+            channel.write(ByteBuffer.wrap(bytes));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static void deleteColumns(File dir) {
+        File[] columns = dir.listFiles();
+        if (columns == null) {
+            return;
+        }
+        for (File column : columns) {
+            column.delete();
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,100 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import static gitlet.Utils.join;
+
+/**
+ * Represent the repository settings saved in ".gitlet/config". The file uses the Java properties
+ * format, one {@code key = value} pair per line, for example:
+ * <pre>
+ *     core.compression = 9
+ * </pre>
+ * A missing file or a missing key means the default value is used.
+ *
+ * @author hdon694
+ */
+class Config {
+    /**
+     * zlib level of new loose objects, from 0 (store uncompressed) to 9 (smallest). -1 is the
+     * zlib default level.
+     */
+    static final String COMPRESSION = "core.compression";
+    /**
+     * Longest chain of deltas a new blob may start. 0 stores every blob in full.
+     */
+    static final String DELTA_DEPTH = "core.deltaDepth";
+    /**
+     * Files of at least this many bytes are stored as content-defined chunks. Unset or 0 turns
+     * chunking off.
+     */
+    static final String CHUNK_THRESHOLD = "core.chunkThreshold";
+    /**
+     * Number of threads hashing and storing working files. Unset or 0 uses every available
+     * processor, and 1 does all the work on the main thread.
+     */
+    static final String THREADS = "core.threads";
+    /**
+     * Number of commits kept in memory by one run of gitlet. 0 turns the cache off.
+     */
+    static final String COMMIT_CACHE = "core.commitCache";
+    /**
+     * {@code pack} saves the reachability bitmap of every commit whose generation is a multiple
+     * of this, besides the branch tips. 0 saves bitmaps for the branch tips only.
+     */
+    static final String BITMAP_INTERVAL = "pack.bitmapInterval";
+
+    /**
+     * The settings read from file, loaded on first use.
+     */
+    private static Properties settings;
+
+    /**
+     * Return the integer value of the setting KEY, or DEFAULTVALUE if it is not set.
+     *
+     * @param key          the name of the setting.
+     * @param defaultValue the value used when the setting is missing.
+     * @return the value of the setting.
+     */
+    static int getInt(String key, int defaultValue) {
+        String value = settings().getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException excp) {
+            throw Utils.error("Bad value for %s in config: %s", key, value);
+        }
+    }
+
+    /**
+     * Forget the settings read so far, so that the next lookup reads the file again.
+     */
+    static synchronized void reload() {
+        settings = null;
+    }
+
+    /**
+     * Return the settings, reading them on first use. Synchronized because settings are read
+     * from several threads at once.
+     */
+    private static synchronized Properties settings() {
+        if (settings == null) {
+            settings = new Properties();
+            File file = join(Repository.GITLET_DIR, "config");
+            if (file.isFile()) {
+                try (Reader reader = Files.newBufferedReader(file.toPath())) {
+                    settings.load(reader);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+        return settings;
+    }
+}
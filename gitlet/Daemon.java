@@ -0,0 +1,229 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+
+import static gitlet.Utils.join;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Serve gitlet commands for one repository from a single JVM, so that a command costs neither
+ * the start of a JVM nor the loading of classes, and the caches of the {@link RepoContext} stay
+ * warm from one command to the next.
+ * <p>
+ * {@code gitlet daemon} listens on the Unix domain socket ".gitlet/daemon.sock" and runs one
+ * command at a time, in the order they arrive. The script {@code scripts/gitlet} forwards its
+ * arguments there when the socket exists, and starts a JVM otherwise.
+ * <p>
+ * A request is a list of NUL-terminated UTF-8 fields: the number of arguments in decimal, the
+ * working directory of the client, then the arguments. The response is a list of frames, each a
+ * channel byte and a 4-byte number: for STDOUT and STDERR the number is the length of the bytes
+ * that follow, and the last frame is EXIT, whose number is the exit status. Standard output is
+ * produced by the same code as in a JVM of its own, so it is identical. A request whose count
+ * is not a number from 0 to MAX_ARGS is answered with an error and the exit status 1.
+ * <p>
+ * The config file, the packs, HEAD, the branches and the index are read again for every
+ * command, since other processes may have changed them. Commits are never changed once saved, so
+ * the commit cache is kept.
+ *
+ * @author hdon694
+ */
+class Daemon {
+    /**
+     * The socket of the daemon -- ".gitlet/daemon.sock"
+     */
+    static final File SOCKET = join(Repository.GITLET_DIR, "daemon.sock");
+
+    private static final int EXIT = 0;
+    private static final int STDOUT = 1;
+    private static final int STDERR = 2;
+    /**
+     * The largest number of arguments of a request.
+     */
+    private static final int MAX_ARGS = 1 << 16;
+
+    /**
+     * Whether this JVM is the daemon, so that it does not start another one.
+     */
+    private static boolean serving;
+
+    /**
+     * Serve commands until the process is stopped. The socket is deleted on exit.
+     */
+    static void serve() {
+        if (serving || isRunning()) {
+            throw new GitletException("A daemon is already running.");
+        }
+        serving = true;
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            Files.deleteIfExists(SOCKET.toPath());
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            Runtime.getRuntime().addShutdownHook(new Thread(SOCKET::delete));
+            out.println("Serving " + Repository.CWD + " on " + SOCKET + ".");
+            out.flush();
+            while (true) {
+                try (SocketChannel client = server.accept()) {
+                    handle(client);
+                } catch (IOException excp) {
+                    // The client went away; serve the next one.
+                    err.println(excp.getMessage());
+                } catch (RuntimeException excp) {
+                    // One bad client must not stop the server.
+                    excp.printStackTrace(err);
+                } finally {
+                    System.setOut(out);
+                    System.setErr(err);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Check if a daemon is already listening on the socket.
+     */
+    private static boolean isRunning() {
+        if (!SOCKET.exists()) {
+            return false;
+        }
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath())).close();
+            return true;
+        } catch (IOException excp) {
+            // A socket left behind by a daemon that was killed.
+            return false;
+        }
+    }
+
+    /**
+     * Run the command of one client, with standard output and error sent to it.
+     */
+    private static void handle(SocketChannel client) throws IOException {
+        InputStream in = new BufferedInputStream(Channels.newInputStream(client));
+        DataOutputStream response = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(client)));
+        int count;
+        try {
+            count = Integer.parseInt(readField(in));
+        } catch (NumberFormatException excp) {
+            count = -1;
+        }
+        if (count < 0 || count > MAX_ARGS) {
+            reject(response, "Bad request: the number of arguments must be from 0 to "
+                    + MAX_ARGS + ".");
+            return;
+        }
+        String cwd = readField(in);
+        String[] args = new String[count];
+        for (int i = 0; i < count; i++) {
+            args[i] = readField(in);
+        }
+
+        PrintStream out = new PrintStream(new BufferedOutputStream(new Frames(response, STDOUT)));
+        PrintStream err = new PrintStream(new BufferedOutputStream(new Frames(response, STDERR)));
+        System.setOut(out);
+        System.setErr(err);
+        int status = 0;
+        try {
+            if (!new File(cwd).getCanonicalFile().equals(Repository.CWD.getCanonicalFile())) {
+                err.println("This daemon serves " + Repository.CWD + ".");
+                status = 1;
+            } else {
+                Config.reload();
+                ObjectStore.reload();
+                RepoContext.get().refresh();
+                Main.execute(args);
+            }
+        } catch (RuntimeException excp) {
+            // As an uncaught exception in a JVM of its own.
+            excp.printStackTrace();
+            status = 1;
+        }
+        out.flush();
+        err.flush();
+        response.writeByte(EXIT);
+        response.writeInt(status);
+        response.flush();
+    }
+
+    /**
+     * Answer a malformed request with MESSAGE on standard error and the exit status 1.
+     */
+    private static void reject(DataOutputStream response, String message) throws IOException {
+        byte[] bytes = (message + System.lineSeparator()).getBytes(UTF_8);
+        response.writeByte(STDERR);
+        response.writeInt(bytes.length);
+        response.write(bytes);
+        response.writeByte(EXIT);
+        response.writeInt(1);
+        response.flush();
+    }
+
+    /**
+     * Read the next NUL-terminated field of a request.
+     */
+    private static String readField(InputStream in) throws IOException {
+        ByteArrayOutputStream field = new ByteArrayOutputStream();
+        for (int b = in.read(); b != 0; b = in.read()) {
+            if (b < 0) {
+                throw new IOException("Incomplete request.");
+            }
+            field.write(b);
+        }
+        return field.toString(UTF_8);
+    }
+
+    /**
+     * Send everything written to it as frames of one channel of the response.
+     */
+    private static class Frames extends OutputStream {
+        private final DataOutputStream response;
+        private final int channel;
+
+        Frames(DataOutputStream response, int channel) {
+            this.response = response;
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            // Standard output and error share the response.
+            synchronized (response) {
+                response.writeByte(channel);
+                response.writeInt(len);
+                response.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (response) {
+                response.flush();
+            }
+        }
+    }
+}
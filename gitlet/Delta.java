@@ -0,0 +1,212 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encode a blob as the difference to an older version of the same file (the base).
+ * <p>
+ * A delta is a list of instructions that rebuild the new content from the base:
+ * <ul>
+ *     <li>COPY offset length -- append {@code length} bytes of the base starting at
+ *     {@code offset}.</li>
+ *     <li>INSERT length bytes -- append the {@code length} literal bytes that follow.</li>
+ * </ul>
+ * The stored delta starts with MAGIC, the 20-byte id of the base, and the chain depth: the number
+ * of deltas that must be applied to rebuild the content (a delta against a full blob has depth
+ * 1). Then come the base length, the target length and the instructions. All numbers after the
+ * depth are unsigned variable-length integers, 7 bits per byte.
+ * <p>
+ * Matches are found like git's diff-delta: every BLOCK-byte block of the base is indexed by its
+ * hash, and a rolling hash of the target is looked up byte by byte. A hit is extended forward
+ * and backward as far as the bytes agree.
+ *
+ * @author hdon694
+ */
+class Delta {
+    /**
+     * Header of a delta. Full blobs that start with a NUL byte are stored behind a header of
+     * their own, so this cannot be mistaken for the start of a full blob.
+     */
+    private static final byte[] MAGIC = {0, 'G', 'L', 'D'};
+    /**
+     * Size of the header: magic, base id and depth.
+     */
+    static final int HEADER = MAGIC.length + 20 + 4;
+    /**
+     * Block size used to index the base and the rolling hash window.
+     */
+    private static final int BLOCK = 16;
+    /**
+     * Multiplier of the polynomial rolling hash.
+     */
+    private static final int PRIME = 31;
+
+    private static final int COPY = 1;
+    private static final int INSERT = 2;
+
+    /**
+     * Check if the stored bytes of a blob are a delta.
+     *
+     * @param stored the stored bytes of a blob, or at least their first 4 bytes.
+     * @return true if the bytes are a delta.
+     */
+    static boolean isDelta(byte[] stored) {
+        return stored.length >= MAGIC.length
+                && Arrays.equals(stored, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    /**
+     * Return the hash of the base blob of a delta.
+     *
+     * @param delta the stored delta.
+     * @return the 40 length hash of the base.
+     */
+    static String baseOf(byte[] delta) {
+        return PackFile.toHex(Arrays.copyOfRange(delta, MAGIC.length, MAGIC.length + 20));
+    }
+
+    /**
+     * Return the chain depth of a delta.
+     *
+     * @param delta the stored delta.
+     * @return the number of deltas applied to rebuild the content.
+     */
+    static int depthOf(byte[] delta) {
+        return ByteBuffer.wrap(delta, MAGIC.length + 20, 4).getInt();
+    }
+
+    /**
+     * Return the length of the content a delta rebuilds.
+     *
+     * @param delta the stored delta.
+     * @return the length of the content.
+     */
+    static long targetLength(byte[] delta) {
+        ByteBuffer in = ByteBuffer.wrap(delta, HEADER, delta.length - HEADER);
+        Utils.readVarint(in);
+        return Utils.readVarint(in);
+    }
+
+    /**
+     * Encode TARGET as a delta against BASE.
+     *
+     * @param baseHash the hash of the base blob.
+     * @param depth    the chain depth of the new delta.
+     * @param base     the content of the base blob.
+     * @param target   the content to encode.
+     * @return the stored delta.
+     */
+    static byte[] create(String baseHash, int depth, byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(MAGIC);
+        out.writeBytes(PackFile.fromHex(baseHash));
+        out.writeBytes(ByteBuffer.allocate(4).putInt(depth).array());
+        Utils.writeVarint(out, base.length);
+        Utils.writeVarint(out, target.length);
+
+        Map<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+        int highPower = 1;
+        for (int i = 1; i < BLOCK; i++) {
+            highPower *= PRIME;
+        }
+
+        int literalStart = 0;
+        int pos = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (pos + BLOCK <= target.length) {
+            Integer candidate = blocks.get(h);
+            if (candidate != null
+                    && Arrays.equals(base, candidate, candidate + BLOCK,
+                    target, pos, pos + BLOCK)) {
+                int baseStart = candidate;
+                int targetStart = pos;
+                while (baseStart > 0 && targetStart > literalStart
+                        && base[baseStart - 1] == target[targetStart - 1]) {
+                    baseStart--;
+                    targetStart--;
+                }
+                int end = pos + BLOCK;
+                int baseEnd = candidate + BLOCK;
+                while (end < target.length && baseEnd < base.length
+                        && base[baseEnd] == target[end]) {
+                    end++;
+                    baseEnd++;
+                }
+                writeInsert(out, target, literalStart, targetStart);
+                out.write(COPY);
+                Utils.writeVarint(out, baseStart);
+                Utils.writeVarint(out, end - targetStart);
+                literalStart = end;
+                pos = end;
+                if (pos + BLOCK <= target.length) {
+                    h = hash(target, pos);
+                }
+            } else {
+                if (pos + BLOCK < target.length) {
+                    h = (h - target[pos] * highPower) * PRIME + target[pos + BLOCK];
+                }
+                pos++;
+            }
+        }
+        writeInsert(out, target, literalStart, target.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Rebuild the content encoded by DELTA from the content of its base.
+     *
+     * @param base  the content of the base blob.
+     * @param delta the stored delta.
+     * @return the content of the blob.
+     */
+    static byte[] apply(byte[] base, byte[] delta) {
+        ByteBuffer in = ByteBuffer.wrap(delta, HEADER, delta.length - HEADER);
+        if (Utils.readVarint(in) != base.length) {
+            throw Utils.error("Delta does not match its base %s.", baseOf(delta));
+        }
+        byte[] target = new byte[(int) Utils.readVarint(in)];
+        int pos = 0;
+        while (in.hasRemaining()) {
+            int op = in.get();
+            if (op == COPY) {
+                int offset = (int) Utils.readVarint(in);
+                int length = (int) Utils.readVarint(in);
+                System.arraycopy(base, offset, target, pos, length);
+                pos += length;
+            } else if (op == INSERT) {
+                int length = (int) Utils.readVarint(in);
+                in.get(target, pos, length);
+                pos += length;
+            } else {
+                throw Utils.error("Corrupt delta against %s.", baseOf(delta));
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Return the hash of the BLOCK bytes of DATA starting at START.
+     */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int i = start; i < start + BLOCK; i++) {
+            h = h * PRIME + data[i];
+        }
+        return h;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data, int from, int to) {
+        if (from < to) {
+            out.write(INSERT);
+            Utils.writeVarint(out, to - from);
+            out.write(data, from, to - from);
+        }
+    }
+}
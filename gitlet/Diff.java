@@ -0,0 +1,377 @@
+package gitlet;
+
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compare two versions of a file line by line, and print the difference as a unified diff.
+ * <p>
+ * The shortest edit script is found with Myers' O(ND) algorithm, in its linear-space form: the
+ * middle snake of the edit graph is found by searching forward from the start and backward from
+ * the end at the same time, and the two halves around it are solved the same way. Every line is
+ * first replaced by a number, equal for equal lines, so comparing two lines costs one int
+ * comparison. Lines that do not occur in the other version can never be matched, so they are
+ * marked as changed and left out of the search, like GNU diff does; so are the lines both
+ * versions start and end with. A small change to a large file then costs little more than
+ * reading it, and so does replacing most of it. The edit script found is still a shortest one.
+ * <p>
+ * The result marks every line of the old version that is deleted and every line of the new
+ * version that is inserted. Runs of changes are printed as hunks with CONTEXT unchanged lines
+ * around them, like {@code diff -u} and git.
+ * <p>
+ * Content is decoded as ISO-8859-1, one char per byte, and must be printed through a writer
+ * that encodes ISO-8859-1, so the lines come out byte for byte whatever their encoding.
+ *
+ * @author hdon694
+ */
+class Diff {
+    /**
+     * Number of unchanged lines printed before and after every change.
+     */
+    static final int CONTEXT = 3;
+    /**
+     * Number of bytes looked at to tell a binary file: it has a NUL byte among them.
+     */
+    private static final int BINARY_PROBE = 8000;
+
+    /**
+     * The numbers of the lines of both versions that also occur in the other one. Only they can
+     * be matched, so the search only sees them.
+     */
+    private final int[] a;
+    private final int[] b;
+    /**
+     * The line of the old and of the new version of every entry of A and B.
+     */
+    private final int[] aLines;
+    private final int[] bLines;
+    private final boolean[] deleted;
+    private final boolean[] inserted;
+    /**
+     * The furthest x on every diagonal of the forward and of the backward search, by diagonal
+     * plus offset. Shared by all the searches of one comparison.
+     */
+    private final int[] forward;
+    private final int[] backward;
+
+    private Diff(int[] oldNumbers, int[] newNumbers, int numbers) {
+        deleted = new boolean[oldNumbers.length];
+        inserted = new boolean[newNumbers.length];
+        boolean[] inOld = new boolean[numbers];
+        boolean[] inNew = new boolean[numbers];
+        for (int number : oldNumbers) {
+            inOld[number] = true;
+        }
+        for (int number : newNumbers) {
+            inNew[number] = true;
+        }
+        aLines = matchable(oldNumbers, inNew, deleted);
+        bLines = matchable(newNumbers, inOld, inserted);
+        a = new int[aLines.length];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = oldNumbers[aLines[i]];
+        }
+        b = new int[bLines.length];
+        for (int j = 0; j < b.length; j++) {
+            b[j] = newNumbers[bLines[j]];
+        }
+        int size = 2 * ((a.length + b.length + 1) / 2) + 1;
+        forward = new int[size];
+        backward = new int[size];
+    }
+
+    /**
+     * Print the difference between two versions of the file PATH to OUT, as a unified diff. A
+     * null version stands for a missing file. Print nothing if they have the same lines.
+     *
+     * @param out        the writer to print to, encoding ISO-8859-1.
+     * @param path       the path of the file, as in the index.
+     * @param oldContent the old content, or null if the file is new.
+     * @param newContent the new content, or null if the file is deleted.
+     */
+    static void print(PrintWriter out, String path, byte[] oldContent, byte[] newContent) {
+        // The path as its UTF-8 bytes, like the content.
+        path = new String(path.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+        String oldName = oldContent == null ? "/dev/null" : "a/" + path;
+        String newName = newContent == null ? "/dev/null" : "b/" + path;
+        if (isBinary(oldContent) || isBinary(newContent)) {
+            if (!Arrays.equals(oldContent, newContent)) {
+                out.println("diff --git a/" + path + " b/" + path);
+                out.println("Binary files " + oldName + " and " + newName + " differ");
+            }
+            return;
+        }
+        List<String> oldLines = lines(oldContent);
+        List<String> newLines = lines(newContent);
+        Map<String, Integer> ids = new HashMap<>();
+        Diff diff = new Diff(number(oldLines, ids), number(newLines, ids), ids.size());
+        diff.compare(0, diff.a.length, 0, diff.b.length);
+
+        List<int[]> changes = diff.changes();
+        if (changes.isEmpty() && (oldContent == null) == (newContent == null)) {
+            return;
+        }
+        out.println("diff --git a/" + path + " b/" + path);
+        out.println("--- " + oldName);
+        out.println("+++ " + newName);
+        for (int first = 0; first < changes.size(); ) {
+            // A hunk holds the changes whose context lines touch or overlap.
+            int last = first;
+            while (last + 1 < changes.size()
+                    && changes.get(last + 1)[0] - changes.get(last)[1] <= 2 * CONTEXT) {
+                last++;
+            }
+            printHunk(out, oldLines, newLines, changes.subList(first, last + 1));
+            first = last + 1;
+        }
+    }
+
+    /**
+     * Print one hunk: the header, then the CHANGES of the hunk with the lines around them.
+     */
+    private static void printHunk(PrintWriter out, List<String> oldLines, List<String> newLines,
+                                  List<int[]> changes) {
+        int[] firstChange = changes.get(0);
+        int[] lastChange = changes.get(changes.size() - 1);
+        int oldStart = Math.max(0, firstChange[0] - CONTEXT);
+        int newStart = firstChange[2] - (firstChange[0] - oldStart);
+        int oldEnd = Math.min(oldLines.size(), lastChange[1] + CONTEXT);
+        int newEnd = lastChange[3] + (oldEnd - lastChange[1]);
+        out.println("@@ -" + range(oldStart, oldEnd) + " +" + range(newStart, newEnd) + " @@");
+
+        int oldLine = oldStart;
+        for (int[] change : changes) {
+            for (; oldLine < change[0]; oldLine++) {
+                printLine(out, ' ', oldLines.get(oldLine));
+            }
+            for (int i = change[0]; i < change[1]; i++) {
+                printLine(out, '-', oldLines.get(i));
+            }
+            for (int j = change[2]; j < change[3]; j++) {
+                printLine(out, '+', newLines.get(j));
+            }
+            oldLine = change[1];
+        }
+        for (; oldLine < oldEnd; oldLine++) {
+            printLine(out, ' ', oldLines.get(oldLine));
+        }
+    }
+
+    /**
+     * Return the line range START to END (exclusive, from 0) as in a hunk header: the first line
+     * counted from 1, and the number of lines unless it is 1. An empty range names the line
+     * before it.
+     */
+    private static String range(int start, int end) {
+        int length = end - start;
+        if (length == 1) {
+            return Integer.toString(start + 1);
+        }
+        return (length == 0 ? start : start + 1) + "," + length;
+    }
+
+    private static void printLine(PrintWriter out, char prefix, String line) {
+        out.print(prefix);
+        if (line.endsWith("\n")) {
+            out.print(line);
+        } else {
+            out.println(line);
+            out.println("\\ No newline at end of file");
+        }
+    }
+
+    /**
+     * Return the lines of CONTENT, each with its '\n' if it has one, so that a last line without
+     * one differs from the same line with one. A missing file has no lines.
+     */
+    private static List<String> lines(byte[] content) {
+        List<String> lines = new ArrayList<>();
+        if (content == null) {
+            return lines;
+        }
+        String text = new String(content, StandardCharsets.ISO_8859_1);
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            end = end < 0 ? text.length() : end + 1;
+            lines.add(text.substring(start, end));
+            start = end;
+        }
+        return lines;
+    }
+
+    /**
+     * Return the number of every line of LINES, given by IDS, where new lines get the next
+     * number.
+     */
+    private static int[] number(List<String> lines, Map<String, Integer> ids) {
+        int[] numbers = new int[lines.size()];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = ids.computeIfAbsent(lines.get(i), line -> ids.size());
+        }
+        return numbers;
+    }
+
+    /**
+     * Return the indexes of the lines of NUMBERS that occur in the other version, by OTHER, and
+     * mark the others in CHANGED: they can only be deleted or inserted.
+     */
+    private static int[] matchable(int[] numbers, boolean[] other, boolean[] changed) {
+        int count = 0;
+        int[] lines = new int[numbers.length];
+        for (int i = 0; i < numbers.length; i++) {
+            if (other[numbers[i]]) {
+                lines[count++] = i;
+            } else {
+                changed[i] = true;
+            }
+        }
+        return Arrays.copyOf(lines, count);
+    }
+
+    private static boolean isBinary(byte[] content) {
+        if (content == null) {
+            return false;
+        }
+        for (int i = 0; i < Math.min(content.length, BINARY_PROBE); i++) {
+            if (content[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the runs of changes, in order, as {old start, old end, new start, new end}: the
+     * deleted lines old start to old end, replaced by the inserted lines new start to new end.
+     */
+    private List<int[]> changes() {
+        List<int[]> changes = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < deleted.length || j < inserted.length) {
+            if ((i < deleted.length && deleted[i]) || (j < inserted.length && inserted[j])) {
+                int oldStart = i;
+                int newStart = j;
+                while (i < deleted.length && deleted[i]) {
+                    i++;
+                }
+                while (j < inserted.length && inserted[j]) {
+                    j++;
+                }
+                changes.add(new int[]{oldStart, i, newStart, j});
+            } else {
+                i++;
+                j++;
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Mark the lines deleted from A[aLo..aHi) and inserted into B[bLo..bHi) by a shortest edit
+     * script between them.
+     */
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo++;
+            bLo++;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi--;
+            bHi--;
+        }
+        if (aLo == aHi) {
+            for (int j = bLo; j < bHi; j++) {
+                inserted[bLines[j]] = true;
+            }
+        } else if (bLo == bHi) {
+            for (int i = aLo; i < aHi; i++) {
+                deleted[aLines[i]] = true;
+            }
+        } else {
+            int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+            compare(aLo, snake[0], bLo, snake[1]);
+            compare(snake[0], aHi, snake[1], bHi);
+        }
+    }
+
+    /**
+     * Return a point {x, y} of A[aLo..aHi) and B[bLo..bHi) on a shortest edit path where the
+     * forward and the backward searches meet, as in diff-match-patch's bisect. Both ranges are
+     * not empty, and neither their first nor their last lines are equal.
+     */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int max = (n + m + 1) / 2;
+        int offset = max;
+        int length = 2 * max + 1;
+        Arrays.fill(forward, 0, length, -1);
+        Arrays.fill(backward, 0, length, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        // With an odd delta the forward search finds the overlap, otherwise the backward one.
+        boolean front = (delta & 1) != 0;
+        // Diagonals that left the edit graph are no longer searched.
+        int forwardStart = 0;
+        int forwardEnd = 0;
+        int backwardStart = 0;
+        int backwardEnd = 0;
+        for (int d = 0; d < max; d++) {
+            for (int k = -d + forwardStart; k <= d - forwardEnd; k += 2) {
+                int x = k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])
+                        ? forward[offset + k + 1] : forward[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x++;
+                    y++;
+                }
+                forward[offset + k] = x;
+                if (x > n) {
+                    forwardEnd += 2;
+                } else if (y > m) {
+                    forwardStart += 2;
+                } else if (front) {
+                    int backwardK = offset + delta - k;
+                    if (backwardK >= 0 && backwardK < length && backward[backwardK] != -1
+                            && x >= n - backward[backwardK]) {
+                        return new int[]{aLo + x, bLo + y};
+                    }
+                }
+            }
+            for (int k = -d + backwardStart; k <= d - backwardEnd; k += 2) {
+                int x = k == -d
+                        || (k != d && backward[offset + k - 1] < backward[offset + k + 1])
+                        ? backward[offset + k + 1] : backward[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x++;
+                    y++;
+                }
+                backward[offset + k] = x;
+                if (x > n) {
+                    backwardEnd += 2;
+                } else if (y > m) {
+                    backwardStart += 2;
+                } else if (!front) {
+                    int forwardK = offset + delta - k;
+                    if (forwardK >= 0 && forwardK < length && forward[forwardK] != -1) {
+                        int forwardX = forward[forwardK];
+                        if (forwardX >= n - x) {
+                            return new int[]{aLo + forwardX, bLo + forwardX - (forwardK - offset)};
+                        }
+                    }
+                }
+            }
+        }
+        // No line in common: the edit path may cross anywhere.
+        return new int[]{aHi, bLo};
+    }
+}
@@ -0,0 +1,86 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * Compress a bitmap with run-length encoded words, in the spirit of EWAH (Enhanced Word-Aligned
+ * Hybrid).
+ * <p>
+ * The bitmap is cut into 64-bit words. Runs of words that are all 0 or all 1 are stored as a
+ * count, and other words are stored as they are. The encoding is a sequence of groups. Each
+ * group starts with two numbers: the run length shifted left by one with the run bit below it,
+ * and the number of literal words that follow the run. Then come the literal words, 8 bytes
+ * each. Numbers are variable-length integers. A reachability bitmap of a long history is mostly
+ * runs of ones, so it costs a few bytes where the plain bitmap costs one bit per commit.
+ *
+ * @author hdon694
+ */
+class Ewah {
+    private static final long ALL_ONES = -1L;
+
+    /**
+     * Encode a bitmap.
+     *
+     * @param bits the bitmap.
+     * @return the compressed bitmap.
+     */
+    static byte[] encode(BitSet bits) {
+        long[] words = bits.toLongArray();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int i = 0;
+        while (i < words.length) {
+            long runWord = words[i] == ALL_ONES ? ALL_ONES : 0;
+            int run = 0;
+            while (i + run < words.length && words[i + run] == runWord) {
+                run++;
+            }
+            int literals = 0;
+            while (i + run + literals < words.length
+                    && words[i + run + literals] != 0 && words[i + run + literals] != ALL_ONES) {
+                literals++;
+            }
+            Utils.writeVarint(out, ((long) run << 1) | (runWord == ALL_ONES ? 1 : 0));
+            Utils.writeVarint(out, literals);
+            ByteBuffer literal = ByteBuffer.allocate(8 * literals);
+            for (int j = 0; j < literals; j++) {
+                literal.putLong(words[i + run + j]);
+            }
+            out.writeBytes(literal.array());
+            i += run + literals;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode LENGTH bytes of IN, from its position, as a bitmap.
+     *
+     * @param in     the compressed bitmap.
+     * @param length the number of bytes of the compressed bitmap.
+     * @return the bitmap.
+     */
+    static BitSet decode(ByteBuffer in, int length) {
+        int end = in.position() + length;
+        BitSet bits = new BitSet();
+        int word = 0;
+        while (in.position() < end) {
+            long marker = Utils.readVarint(in);
+            int run = (int) (marker >>> 1);
+            if ((marker & 1) == 1) {
+                bits.set(word * Long.SIZE, (word + run) * Long.SIZE);
+            }
+            word += run;
+            long literals = Utils.readVarint(in);
+            for (long j = 0; j < literals; j++) {
+                long value = in.getLong();
+                while (value != 0) {
+                    bits.set(word * Long.SIZE + Long.numberOfTrailingZeros(value));
+                    value &= value - 1;
+                }
+                word++;
+            }
+        }
+        return bits;
+    }
+}
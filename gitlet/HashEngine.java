@@ -0,0 +1,78 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Hash or store many working files at once on all cores.
+ * <p>
+ * The work runs in a ForkJoinPool of {@code core.threads} threads (all available processors by
+ * default). Each thread reads at most one file at a time, so the pool size also bounds the
+ * number of concurrent file reads. Results always come back in the order of the input, so the
+ * output of the commands using this engine does not depend on scheduling.
+ *
+ * @author hdon694
+ */
+class HashEngine {
+
+    /**
+     * Return the SHA-1 hash of the content of every file, in the order of FILES.
+     *
+     * @param files the files to hash.
+     * @return the hashes, one per file.
+     */
+    static List<String> hash(List<File> files) {
+        return map(files, Utils::sha1);
+    }
+
+    /**
+     * Apply TASK to every item, in parallel, and return the results in the order of ITEMS. A
+     * runtime exception thrown by a task is rethrown to the caller.
+     *
+     * @param items the inputs.
+     * @param task  the work to do on one input, safe to run on several threads.
+     * @param <T>   the type of the inputs.
+     * @param <R>   the type of the results.
+     * @return the results, one per input.
+     */
+    static <T, R> List<R> map(List<T> items, Function<T, R> task) {
+        int threads = threads();
+        if (threads <= 1 || items.size() <= 1) {
+            List<R> results = new ArrayList<>(items.size());
+            for (T item : items) {
+                results.add(task.apply(item));
+            }
+            return results;
+        }
+        ForkJoinPool pool = new ForkJoinPool(Math.min(threads, items.size()));
+        try {
+            // A parallel stream started from inside a pool runs its tasks in that pool.
+            return pool.submit(() -> items.parallelStream().map(task)
+                    .collect(Collectors.toList())).get();
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Return the number of threads to use: {@code core.threads}, or the number of available
+     * processors when it is unset or 0.
+     */
+    private static int threads() {
+        int threads = Config.getInt(Config.THREADS, 0);
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+}
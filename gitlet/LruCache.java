@@ -0,0 +1,76 @@
+package gitlet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A map of bounded size that drops the least recently used entry when it is full, and counts
+ * how many lookups it answered (hits) and how many it had to load (misses).
+ *
+ * @param <K> the type of the keys.
+ * @param <V> the type of the values.
+ * @author hdon694
+ */
+class LruCache<K, V> {
+    /**
+     * The entries, from least to most recently used.
+     */
+    private final LinkedHashMap<K, V> entries;
+    private long hits;
+    private long misses;
+
+    /**
+     * Create a cache of at most CAPACITY entries. A capacity of 0 caches nothing.
+     *
+     * @param capacity the largest number of entries.
+     */
+    LruCache(int capacity) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Return the value of KEY, loading it with LOADER if it is not cached.
+     *
+     * @param key    the key to look up.
+     * @param loader computes the value of a key that is not cached.
+     * @return the value of the key.
+     */
+    synchronized V get(K key, Function<K, V> loader) {
+        V value = entries.get(key);
+        if (value != null) {
+            hits++;
+            return value;
+        }
+        misses++;
+        value = loader.apply(key);
+        entries.put(key, value);
+        return value;
+    }
+
+    /**
+     * Return the number of lookups answered from the cache.
+     */
+    synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * Return the number of lookups that had to load their value.
+     */
+    synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Return the number of cached entries.
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+}
@@ -1,5 +1,7 @@
 package gitlet;
 
+import java.util.Arrays;
+
 /**
  * Driver class for Gitlet, a subset of the Git version-control system.
  *
@@ -15,8 +17,9 @@ public class Main {
      * <p>
      * Init -- Creates a new Gitlet version-control system in the current directory.
      * <p>
-     * Add [filename] -- Adds a copy of the file as it currently exists to the staging area (see the
-     * description of the <code>commit</code> command).
+     * Add [filename]... -- Adds a copy of the files as they currently exist to the staging area (see
+     * the description of the <code>commit</code> command). {@code add .} adds every file in the
+     * working directory.
      * <p>
      * Commit [message] -- Saves a snapshot of tracked files in the current commit and staging area so they
      * can be restored at a later time, creating a new commit.
@@ -53,6 +56,10 @@ public class Main {
      *
      * <p>
      * Global-log -- Like log, except displays information about all commits ever made.
+     * <p>
+     * Both take {@code -n N} to print at most N commits, {@code --oneline} to print one line per
+     * commit, and {@code --format=TEMPLATE} to lay every commit out with placeholders such as
+     * %H (hash), %h (short hash), %ad (date) and %s (message).
      *
      * <p>
      * find [commit message] -- Prints out the ids of all commits that have the given commit message, one per line.
@@ -64,9 +71,16 @@ public class Main {
      * <p>
      *     branch [branch name] -- Creates a new branch with the given name, and points it at the current
      *     head node.
+     *     <p>
+     *     branch --contains [commit id] -- Lists the branches whose head contains the given commit.
+     *     <p>
+     *     branch --merged -- Lists the branches whose head is an ancestor of the current head.
      *
      * <p>
      *     rm-branch [branch name] -- Deletes the branch with the given name.
+     * <p>
+     *     diff [commit id [commit id]] [-- file name] -- Prints the changes from the index, or the
+     *     first commit, to the working directory, or the second commit, as a unified diff.
      *
      * <p>
      *     reset [commit id] -- Checks out all the files tracked by the given commit.
@@ -75,6 +89,13 @@ public class Main {
      *     merge [branch name] -- Merges files from the given branch into the current branch.
      *
      * <p>
+     *     pack -- Moves all loose commits, trees and blobs into one pack file with a sorted index.
+     *
+     * <p>
+     *     daemon -- Keeps serving commands for this repository from one JVM, over the socket
+     *     .gitlet/daemon.sock, until it is stopped. See {@link Daemon}.
+     *
+     * <p>
      * The place to store old copies of files and other metadata: ".gitlet".
      * <p>
      * Some commands have failure cases with a specified error message.
@@ -97,13 +118,46 @@ public class Main {
      * directory (i.e., one containing a .gitlet subdirectory), but is not in such a directory,
      * print the message {@code Not in an initialized Gitlet directory.}</li>
      * <p>
-     * To exit your program immediately, you may call System.exit(0).
+     * A command fails by throwing a {@link GitletException}, whose message is printed by
+     * {@link #execute}. Nothing calls System.exit, so the {@link Daemon} can run commands in its
+     * own JVM.
      */
     public static void main(String[] args) {
+        if (System.getenv("GITLET_CACHE_STATS") != null) {
+            Runtime.getRuntime().addShutdownHook(
+                    new Thread(() -> System.err.println(RepoContext.get().stats())));
+        }
+        if (System.getenv(Trace.ENV) != null
+                && (args.length == 0 || !args[0].equals(Trace.FLAG))) {
+            String[] traced = new String[args.length + 1];
+            traced[0] = Trace.FLAG;
+            System.arraycopy(args, 0, traced, 1, args.length);
+            args = traced;
+        }
+        execute(args);
+    }
+
+    /**
+     * Run the command ARGS, and print the message of the error it fails with, if any. ARGS may
+     * start with {@code --trace}, to print what the command spent its time on; see {@link Trace}.
+     *
+     * @param args the command and its operands.
+     */
+    static void execute(String[] args) {
+        String[] command = Trace.begin(args);
+        try {
+            run(command);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        } finally {
+            Trace.end();
+        }
+    }
+
+    private static void run(String[] args) {
         // what if args is empty?
         if (args.length == 0) {
-            System.out.println("Please enter a command.");
-            System.exit(0);
+            throw new GitletException("Please enter a command.");
         }
 
         String firstArg = args[0];
@@ -114,9 +168,9 @@ public class Main {
                 Repository.initCommand();
                 break;
             case "add":
-                // handle the `add [filename]` command
-                validateNumArgs("add", args, 2);
-                Repository.addCommand(args[1]);
+                // handle the `add [filename]...` command
+                validateMinArgs("add", args, 2);
+                Repository.addCommand(Arrays.asList(args).subList(1, args.length));
                 break;
             // TODO: FILL THE REST IN
             case "commit":
@@ -143,17 +197,19 @@ public class Main {
                     validateNumArgs("checkout", args, 4);
                     Repository.checkoutCommand(args[1], args[3]);
                 } else {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    throw new GitletException("Incorrect operands.");
                 }
                 break;
             case "log":
-                validateNumArgs("log", args, 1);
-                Repository.logCommand();
+                // handle the `log [-n N] [--oneline | --format=TEMPLATE]` command
+                validateMinArgs("log", args, 1);
+                LogOptions logOptions = new LogOptions(args);
+                Repository.logCommand(logOptions.limit, logOptions.format);
                 break;
             case "global-log":
-                validateNumArgs("global-log", args, 1);
-                Repository.globalLogCommand();
+                validateMinArgs("global-log", args, 1);
+                LogOptions globalLogOptions = new LogOptions(args);
+                Repository.globalLogCommand(globalLogOptions.limit, globalLogOptions.format);
                 break;
             case "find":
                 validateNumArgs("find", args, 2);
@@ -164,8 +220,18 @@ public class Main {
                 Repository.statusCommand();
                 break;
             case "branch":
-                validateNumArgs("branch", args, 2);
-                Repository.branchCommand(args[1]);
+                if (args.length == 3 && args[1].equals("--contains")) {
+                    // handle the `branch --contains [commit id]` command
+                    validateNumArgs("branch", args, 3);
+                    Repository.branchContainsCommand(args[2]);
+                } else if (args.length == 2 && args[1].equals("--merged")) {
+                    // handle the `branch --merged` command
+                    validateNumArgs("branch", args, 2);
+                    Repository.branchMergedCommand();
+                } else {
+                    validateNumArgs("branch", args, 2);
+                    Repository.branchCommand(args[1]);
+                }
                 break;
             case "rm-branch":
                 validateNumArgs("rm-branch", args, 2);
@@ -179,11 +245,30 @@ public class Main {
                 validateNumArgs("merge", args, 2);
                 Repository.mergeCommand(args[1]);
                 break;
+            case "pack":
+                validateNumArgs("pack", args, 1);
+                Repository.packCommand();
+                break;
+            case "diff":
+                // handle the `diff [commit id [commit id]] [-- file name]` command
+                validateMinArgs("diff", args, 1);
+                int dashes = Arrays.asList(args).indexOf("--");
+                int commits = (dashes < 0 ? args.length : dashes) - 1;
+                if (commits > 2 || (dashes >= 0 && dashes != args.length - 2)) {
+                    throw new GitletException("Incorrect operands.");
+                }
+                Repository.diffCommand(commits > 0 ? args[1] : null, commits > 1 ? args[2] : null,
+                        dashes >= 0 ? args[dashes + 1] : null);
+                break;
+            case "daemon":
+                // handle the `daemon` command
+                validateNumArgs("daemon", args, 1);
+                Daemon.serve();
+                break;
 
             // Handle non-exist commands.
             default:
-                System.out.println("No command with that name exists.");
-                System.exit(0);
+                throw new GitletException("No command with that name exists.");
 
         }
     }
@@ -197,12 +282,58 @@ public class Main {
      */
     public static void validateNumArgs(String cmd, String[] args, int n) {
         if (args.length != n) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+            throw new GitletException("Incorrect operands.");
         }
         if (!args[0].equals("init") && !Repository.GITLET_DIR.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw new GitletException("Not in an initialized Gitlet directory.");
+        }
+    }
+
+    /**
+     * A helper function validates that there are at least N arguments.
+     *
+     * @param cmd  command name
+     * @param args the actual arguments
+     * @param n    the smallest expected count of the arguments
+     */
+    public static void validateMinArgs(String cmd, String[] args, int n) {
+        if (args.length < n) {
+            throw new GitletException("Incorrect operands.");
+        }
+        if (!Repository.GITLET_DIR.exists()) {
+            throw new GitletException("Not in an initialized Gitlet directory.");
+        }
+    }
+
+    /**
+     * The options of log and global-log: {@code -n N} prints at most N commits,
+     * {@code --oneline} prints every commit as its short id and message, and
+     * {@code --format=TEMPLATE} prints every commit laid out by TEMPLATE. The last of --oneline
+     * and --format wins.
+     */
+    private static class LogOptions {
+        /**
+         * The largest number of commits to print, or -1 for all of them.
+         */
+        private int limit = -1;
+        /**
+         * The template to print every commit with, or null for the default format.
+         */
+        private String format;
+
+        LogOptions(String[] args) {
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equals("-n") && i + 1 < args.length
+                        && args[i + 1].matches("\\d{1,9}")) {
+                    limit = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--oneline")) {
+                    format = "%h %s";
+                } else if (args[i].startsWith("--format=")) {
+                    format = args[i].substring("--format=".length());
+                } else {
+                    throw new GitletException("Incorrect operands.");
+                }
+            }
         }
     }
 }
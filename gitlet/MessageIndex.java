@@ -0,0 +1,268 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.join;
+
+/**
+ * Find the commits whose message contains a string without reading every commit, with an
+ * inverted index over the trigrams (three consecutive chars) of all commit messages.
+ * <p>
+ * A message can only contain a string if it contains every trigram of the string. The index
+ * maps every trigram to the bitmap of the commits whose message contains it, so AND-ing the
+ * bitmaps of the trigrams of the string gives a small set of candidates. Only those are read and
+ * checked with {@link String#contains}, so the result is exactly the one of checking every commit.
+ * A string shorter than three chars has no trigram, and every commit is a candidate.
+ * <p>
+ * Like the {@link CommitIndex}, the index has two parts:
+ * <ul>
+ *     <li>".gitlet/message-index" -- magic "GMIX", version, the number of commits, the number of
+ *     trigrams, the 20-byte ids of the commits, then for every trigram in order: the trigram as
+ *     a long, the position and the length of its bitmap. The bitmaps follow, compressed with
+ *     {@link Ewah}. Bit i of a bitmap stands for the i-th commit. Commits are numbered in the
+ *     order they were indexed, so adding commits never renumbers the ones already there.</li>
+ *     <li>".gitlet/message-index.log" -- the 20-byte ids of the commits made since. They are
+ *     always candidates, and once there are JOURNAL_LIMIT of them they are merged into the
+ *     index.</li>
+ * </ul>
+ * A repository without the index gets it built from all its commits on first use.
+ *
+ * @author hdon694
+ */
+class MessageIndex {
+    /**
+     * The index file -- ".gitlet/message-index"
+     */
+    static final File FILE = join(Repository.GITLET_DIR, "message-index");
+    /**
+     * The ids of the commits made since the index was written -- ".gitlet/message-index.log"
+     */
+    static final File JOURNAL = join(Repository.GITLET_DIR, "message-index.log");
+
+    private static final int MAGIC = 0x474D4958; // "GMIX"
+    private static final int VERSION = 1;
+    private static final int HEADER = 16;
+    private static final int ID_BYTES = 20;
+    private static final int ENTRY_BYTES = 16;
+    /**
+     * Number of journal entries that triggers a merge into the index.
+     */
+    private static final int JOURNAL_LIMIT = 1024;
+
+    /**
+     * Record a newly made commit.
+     *
+     * @param hash the 40 length hash of the commit.
+     */
+    static void add(String hash) {
+        try (OutputStream out = Files.newOutputStream(JOURNAL.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            out.write(PackFile.fromHex(hash));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (JOURNAL.length() >= (long) JOURNAL_LIMIT * ID_BYTES) {
+            merge();
+        }
+    }
+
+    /**
+     * Return the ids of the commits whose message contains TEXT, in lexicographic order.
+     *
+     * @param text the string to search for.
+     * @return the ids of the matching commits.
+     */
+    static List<String> find(String text) {
+        if (!FILE.isFile()) {
+            merge();
+        }
+        ByteBuffer index = PackFile.map(FILE);
+        if (index.getInt(0) != MAGIC || index.getInt(4) != VERSION) {
+            throw Utils.error("Corrupt message index.");
+        }
+        int commits = index.getInt(8);
+        BitSet rows = new BitSet();
+        rows.set(0, commits);
+        for (long trigram : trigrams(text)) {
+            BitSet bits = postings(index, trigram);
+            if (bits == null) {
+                rows.clear();
+                break;
+            }
+            rows.and(bits);
+        }
+
+        TreeSet<String> candidates = new TreeSet<>(journal());
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            byte[] id = new byte[ID_BYTES];
+            index.get(HEADER + ID_BYTES * row, id);
+            candidates.add(PackFile.toHex(id));
+        }
+        List<String> matches = new ArrayList<>();
+        for (String hash : candidates) {
+            if (Commit.readFromFile(hash).findMessage(text)) {
+                matches.add(hash);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Rewrite the index with the commits of the journal added, and empty the journal. Without an
+     * index, build it from every commit of the repository.
+     */
+    private static void merge() {
+        List<String> ids = new ArrayList<>();
+        TreeMap<Long, BitSet> postings = new TreeMap<>();
+        List<String> added;
+        if (FILE.isFile()) {
+            ByteBuffer index = PackFile.map(FILE);
+            int commits = index.getInt(8);
+            int trigrams = index.getInt(12);
+            for (int row = 0; row < commits; row++) {
+                byte[] id = new byte[ID_BYTES];
+                index.get(HEADER + ID_BYTES * row, id);
+                ids.add(PackFile.toHex(id));
+            }
+            int entries = HEADER + ID_BYTES * commits;
+            for (int i = 0; i < trigrams; i++) {
+                postings.put(index.getLong(entries + ENTRY_BYTES * i),
+                        bitmap(index, entries + ENTRY_BYTES * i, trigrams, commits));
+            }
+            added = journal();
+        } else {
+            added = ObjectStore.commitIds();
+        }
+
+        TreeSet<String> indexed = new TreeSet<>(ids);
+        for (String hash : added) {
+            if (!indexed.add(hash)) {
+                continue;
+            }
+            int row = ids.size();
+            ids.add(hash);
+            for (long trigram : trigrams(Commit.readFromFile(hash).getMessage())) {
+                postings.computeIfAbsent(trigram, t -> new BitSet()).set(row);
+            }
+        }
+        write(ids, postings);
+        try {
+            Files.deleteIfExists(JOURNAL.toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static void write(List<String> ids, TreeMap<Long, BitSet> postings) {
+        List<byte[]> bitmaps = new ArrayList<>();
+        for (BitSet bits : postings.values()) {
+            bitmaps.add(Ewah.encode(bits));
+        }
+        File temp = join(Repository.GITLET_DIR, "message-index.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(ids.size());
+            out.writeInt(postings.size());
+            for (String id : ids) {
+                out.write(PackFile.fromHex(id));
+            }
+            int position = 0;
+            int i = 0;
+            for (long trigram : postings.keySet()) {
+                out.writeLong(trigram);
+                out.writeInt(position);
+                out.writeInt(bitmaps.get(i).length);
+                position += bitmaps.get(i).length;
+                i++;
+            }
+            for (byte[] bitmap : bitmaps) {
+                out.write(bitmap);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), FILE.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return the bitmap of TRIGRAM, found by binary search, or null if no message contains it.
+     */
+    private static BitSet postings(ByteBuffer index, long trigram) {
+        int commits = index.getInt(8);
+        int trigrams = index.getInt(12);
+        int entries = HEADER + ID_BYTES * commits;
+        int lo = 0;
+        int hi = trigrams - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long key = index.getLong(entries + ENTRY_BYTES * mid);
+            if (key < trigram) {
+                lo = mid + 1;
+            } else if (key > trigram) {
+                hi = mid - 1;
+            } else {
+                return bitmap(index, entries + ENTRY_BYTES * mid, trigrams, commits);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decode the bitmap of the entry at position ENTRY.
+     */
+    private static BitSet bitmap(ByteBuffer index, int entry, int trigrams, int commits) {
+        int data = HEADER + ID_BYTES * commits + ENTRY_BYTES * trigrams;
+        return Ewah.decode(index.duplicate().position(data + index.getInt(entry + 8)),
+                index.getInt(entry + 12));
+    }
+
+    /**
+     * Return the distinct trigrams of TEXT, each packed as three 16-bit chars in a long, in
+     * order.
+     */
+    private static TreeSet<Long> trigrams(String text) {
+        TreeSet<Long> trigrams = new TreeSet<>();
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            trigrams.add(((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16)
+                    | text.charAt(i + 2));
+        }
+        return trigrams;
+    }
+
+    /**
+     * Return the ids in the journal.
+     */
+    private static List<String> journal() {
+        if (!JOURNAL.isFile()) {
+            return List.of();
+        }
+        byte[] bytes = Utils.readContents(JOURNAL);
+        String[] ids = new String[bytes.length / ID_BYTES];
+        for (int i = 0; i < ids.length; i++) {
+            byte[] id = new byte[ID_BYTES];
+            System.arraycopy(bytes, i * ID_BYTES, id, 0, ID_BYTES);
+            ids[i] = PackFile.toHex(id);
+        }
+        return List.of(ids);
+    }
+}
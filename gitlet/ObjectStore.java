@@ -0,0 +1,582 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/**
+ * Resolve commits, trees and blobs by their hash. An object is either a loose file under
+ * COMMITS_DIR, TREES_DIR or BLOBS_DIR, or an entry of a pack under PACKS_DIR. Packs are searched
+ * first, and then the loose files.
+ * <p>
+ * Loose objects are spread over 256 subdirectories named by the first two hex digits of their
+ * hash, like git: object {@code 3f8a...} is the file {@code 8a...} in {@code 3f/}. No directory
+ * then grows past a few thousand entries, which keeps lookups and listings fast in large
+ * repositories. A repository written with flat directories is migrated on first use, and LAYOUT
+ * is created once it is done.
+ * <p>
+ * New loose objects are zlib-compressed at the level set by {@code core.compression}: the file
+ * holds the 4 bytes of DEFLATED_MAGIC followed by the deflate stream. Objects without this
+ * header are read as they are, which keeps repositories written before compression readable.
+ * A pack copies loose files unchanged, so packed objects are decoded the same way.
+ * <p>
+ * A new blob given a base (the previous version of the same file) is stored as a {@link Delta}
+ * against it when that is much smaller, as long as the chain of deltas stays within
+ * {@code core.deltaDepth}. Reading such a blob rebuilds its content from the chain.
+ * <p>
+ * A file of at least {@code core.chunkThreshold} bytes is split by the {@link Chunker}. Every
+ * chunk is stored once as a blob of its own, and the blob of the file is a manifest listing its
+ * chunks. Chunked blobs are written back by streaming their chunks one at a time.
+ * <p>
+ * Blob content is handled as bytes and streamed through fixed-size buffers both ways, so any
+ * binary file of any size can be stored. Only deltas, limited to DELTA_MAX_SIZE, are built in
+ * memory.
+ *
+ * @author hdon694
+ */
+class ObjectStore {
+    /**
+     * The packs directory -- ".gitlet/packs/"
+     */
+    static final File PACKS_DIR = join(Repository.GITLET_DIR, "packs");
+    /**
+     * Marks a repository whose loose objects are in the fan-out layout -- ".gitlet/layout"
+     */
+    static final File LAYOUT = join(Repository.GITLET_DIR, "layout");
+
+    /**
+     * Header of a compressed object. An uncompressed blob starting with a NUL byte is stored behind
+     * FULL_MAGIC, so its first four bytes never equal this header.
+     */
+    private static final byte[] DEFLATED_MAGIC = {0, 'G', 'L', 'Z'};
+    /**
+     * Header of a full blob whose content starts with a NUL byte, so that binary content is never
+     * mistaken for a delta or a manifest.
+     */
+    private static final byte[] FULL_MAGIC = {0, 'G', 'L', 'B'};
+
+    /**
+     * Default of {@code core.deltaDepth}.
+     */
+    private static final int DEFAULT_DELTA_DEPTH = 50;
+    /**
+     * Content larger than this is never delta-encoded, since encoding and applying a delta hold
+     * the base and the new content in memory. Every other blob is streamed.
+     */
+    static final int DELTA_MAX_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The packs of this repository, opened on first use.
+     */
+    private static List<PackFile> packs;
+    /**
+     * Whether the loose objects are known to be in the fan-out layout.
+     */
+    private static boolean fanOut;
+
+    /**
+     * Return the bytes of the commit with the given hash.
+     *
+     * @param hash the 40 length hash of the commit.
+     * @return the bytes of the commit.
+     */
+    static byte[] readCommit(String hash) {
+        return read(PackFile.COMMIT, hash);
+    }
+
+    /**
+     * Write the content of the blob with the given hash to OUT. The content is streamed: a full
+     * blob is copied through a fixed-size buffer, and a chunked blob one chunk at a time.
+     *
+     * @param hash the 40 length hash of the blob.
+     * @param out  the stream to write the content to.
+     */
+    static void copyBlob(String hash, OutputStream out) {
+        long start = Trace.start();
+        streamBlob(hash, out);
+        Trace.record(Trace.Phase.BLOB_READ, start, 0);
+    }
+
+    /**
+     * Write the content of the blob with the given hash to OUT, reading its chunks or its delta
+     * base as needed.
+     */
+    private static void streamBlob(String hash, OutputStream out) {
+        try (BufferedInputStream in = open(PackFile.BLOB, hash)) {
+            byte[] head = peek(in, FULL_MAGIC.length);
+            if (Chunker.isManifest(head)) {
+                Chunker.ManifestReader manifest = new Chunker.ManifestReader(in);
+                for (String chunk = manifest.next(); chunk != null; chunk = manifest.next()) {
+                    streamBlob(chunk, out);
+                }
+            } else if (Delta.isDelta(head)) {
+                byte[] delta = in.readAllBytes();
+                out.write(Delta.apply(readBlob(Delta.baseOf(delta)), delta));
+            } else {
+                if (Arrays.equals(head, FULL_MAGIC)) {
+                    in.skipNBytes(FULL_MAGIC.length);
+                }
+                in.transferTo(out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return the whole content of a blob. Only used for delta bases, which are never larger than
+     * DELTA_MAX_SIZE.
+     */
+    private static byte[] readBlob(String hash) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        streamBlob(hash, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Return the content of a blob if it may serve as a delta base: it is not chunked and holds
+     * at most LIMIT bytes. Otherwise return null.
+     */
+    private static byte[] readBlobAtMost(String hash, int limit) throws IOException {
+        try (BufferedInputStream in = open(PackFile.BLOB, hash)) {
+            byte[] head = peek(in, FULL_MAGIC.length);
+            if (Chunker.isManifest(head)) {
+                return null;
+            } else if (Delta.isDelta(head)) {
+                byte[] delta = in.readAllBytes();
+                return Delta.targetLength(delta) > limit
+                        ? null : Delta.apply(readBlob(Delta.baseOf(delta)), delta);
+            }
+            if (Arrays.equals(head, FULL_MAGIC)) {
+                in.skipNBytes(FULL_MAGIC.length);
+            }
+            byte[] content = in.readNBytes(limit + 1);
+            return content.length > limit ? null : content;
+        }
+    }
+
+    /**
+     * Return the chain depth of a stored blob: 0 unless it is a delta.
+     */
+    private static int deltaDepth(String hash) throws IOException {
+        try (BufferedInputStream in = open(PackFile.BLOB, hash)) {
+            byte[] head = in.readNBytes(Delta.HEADER);
+            return Delta.isDelta(head) ? Delta.depthOf(head) : 0;
+        }
+    }
+
+    /**
+     * Save the bytes of a commit as a loose object, and record its id in the {@link CommitIndex}.
+     *
+     * @param hash  the hash of the commit.
+     * @param bytes the bytes of the commit.
+     */
+    static void writeCommit(String hash, byte[] bytes) {
+        try {
+            writeLoose(PackFile.COMMIT, hash, new byte[0], new ByteArrayInputStream(bytes));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        CommitIndex.add(hash);
+    }
+
+    /**
+     * Return the bytes of the tree with the given hash.
+     *
+     * @param hash the 40 length hash of the tree.
+     * @return the bytes of the tree.
+     */
+    static byte[] readTree(String hash) {
+        long start = Trace.start();
+        byte[] bytes = read(PackFile.TREE, hash);
+        Trace.record(Trace.Phase.TREE_READ, start, bytes.length);
+        return bytes;
+    }
+
+    /**
+     * Save the bytes of a tree as a loose object.
+     *
+     * @param hash  the hash of the tree.
+     * @param bytes the bytes of the tree.
+     */
+    static void writeTree(String hash, byte[] bytes) {
+        try {
+            writeLoose(PackFile.TREE, hash, new byte[0], new ByteArrayInputStream(bytes));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Save the content of FILE as a loose blob named HASH.
+     * <ul>
+     *     <li>A file of at least {@code core.chunkThreshold} bytes is chunked.</li>
+     *     <li>Otherwise, if BASEHASH is given and both versions are at most DELTA_MAX_SIZE, the
+     *     blob is stored as a delta against BASEHASH when the delta is less than half the size of
+     *     the content.</li>
+     *     <li>Otherwise the content is streamed into a full blob.</li>
+     * </ul>
+     *
+     * @param hash     the hash of the content of FILE.
+     * @param file     the file to save.
+     * @param baseHash the hash of the previous version of the file, or null.
+     */
+    static void writeBlob(String hash, File file, String baseHash) {
+        long start = Trace.start();
+        storeBlob(hash, file, baseHash);
+        Trace.record(Trace.Phase.BLOB_WRITE, start, file.length());
+    }
+
+    private static void storeBlob(String hash, File file, String baseHash) {
+        int chunkThreshold = Config.getInt(Config.CHUNK_THRESHOLD, 0);
+        if (chunkThreshold > 0 && file.length() >= chunkThreshold) {
+            writeChunkedBlob(hash, file);
+            return;
+        }
+        int maxDepth = Config.getInt(Config.DELTA_DEPTH, DEFAULT_DELTA_DEPTH);
+        try {
+            if (baseHash != null && !baseHash.equals(hash) && maxDepth > 0
+                    && file.length() <= DELTA_MAX_SIZE && hasBlob(baseHash)) {
+                int depth = deltaDepth(baseHash) + 1;
+                byte[] base = depth <= maxDepth ? readBlobAtMost(baseHash, DELTA_MAX_SIZE) : null;
+                if (base != null) {
+                    byte[] content = readContents(file);
+                    byte[] delta = Delta.create(baseHash, depth, base, content);
+                    if (delta.length < content.length / 2) {
+                        writeLoose(PackFile.BLOB, hash, new byte[0],
+                                new ByteArrayInputStream(delta));
+                        return;
+                    }
+                }
+            }
+            try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                writeLoose(PackFile.BLOB, hash, fullHeader(peek(in, 1)), in);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Save the content of FILE as a chunked blob: store every chunk that is not stored yet, then
+     * the manifest under the hash of the whole content.
+     *
+     * @param hash the hash of the whole content.
+     * @param file the file to split into chunks.
+     */
+    private static void writeChunkedBlob(String hash, File file) {
+        List<String> chunkHashes = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            Chunker chunker = new Chunker(in);
+            for (byte[] chunk = chunker.next(); chunk != null; chunk = chunker.next()) {
+                String chunkHash = sha1((Object) chunk);
+                if (!hasBlob(chunkHash)) {
+                    writeLoose(PackFile.BLOB, chunkHash, fullHeader(chunk),
+                            new ByteArrayInputStream(chunk));
+                }
+                chunkHashes.add(chunkHash);
+                lengths.add(chunk.length);
+            }
+            writeLoose(PackFile.BLOB, hash, new byte[0],
+                    new ByteArrayInputStream(Chunker.manifest(chunkHashes, lengths)));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return the header of a full blob whose content starts with FIRST: FULL_MAGIC if the
+     * content starts with a NUL byte, which could be mistaken for a delta or manifest header,
+     * and nothing otherwise.
+     */
+    private static byte[] fullHeader(byte[] first) {
+        return first.length > 0 && first[0] == 0 ? FULL_MAGIC : new byte[0];
+    }
+
+    /**
+     * Return the next N bytes of IN without consuming them.
+     */
+    private static byte[] peek(BufferedInputStream in, int n) throws IOException {
+        in.mark(n);
+        byte[] result = in.readNBytes(n);
+        in.reset();
+        return result;
+    }
+
+    /**
+     * Check if a commit with the given hash exists.
+     *
+     * @param hash the 40 length hash of the commit.
+     * @return true if the commit exists.
+     */
+    static boolean hasCommit(String hash) {
+        return contains(PackFile.COMMIT, hash);
+    }
+
+    /**
+     * Check if a blob with the given hash exists.
+     *
+     * @param hash the 40 length hash of the blob.
+     * @return true if the blob exists.
+     */
+    static boolean hasBlob(String hash) {
+        return contains(PackFile.BLOB, hash);
+    }
+
+    /**
+     * Check if a tree with the given hash exists.
+     *
+     * @param hash the 40 length hash of the tree.
+     * @return true if the tree exists.
+     */
+    static boolean hasTree(String hash) {
+        return contains(PackFile.TREE, hash);
+    }
+
+    /**
+     * Return the hashes of all commits, loose and packed, in lexicographic order.
+     *
+     * @return the sorted hashes of all commits.
+     */
+    static List<String> commitIds() {
+        TreeSet<String> ids = new TreeSet<>();
+        for (PackFile pack : packs()) {
+            ids.addAll(pack.ids(PackFile.COMMIT));
+        }
+        ids.addAll(looseIds(PackFile.COMMIT));
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * Move every loose commit, tree and blob into one new pack, then delete the loose files.
+     *
+     * @return the number of objects packed.
+     */
+    static int packLooseObjects() {
+        // Keyed by hash and type: a blob may have the hash of a tree or commit whose encoding
+        // it holds.
+        List<PackFile.Entry> objects = new ArrayList<>();
+        collectLoose(PackFile.COMMIT, objects);
+        collectLoose(PackFile.BLOB, objects);
+        collectLoose(PackFile.TREE, objects);
+        if (objects.isEmpty()) {
+            return 0;
+        }
+        Collections.sort(objects);
+        packs().add(new PackFile(PackFile.write(PACKS_DIR, objects)));
+        for (PackFile.Entry entry : objects) {
+            File file = looseFile(entry.type(), entry.hash());
+            if (file.delete()) {
+                // Only succeeds once the subdirectory is empty.
+                file.getParentFile().delete();
+            }
+        }
+        return objects.size();
+    }
+
+    private static void collectLoose(byte type, List<PackFile.Entry> objects) {
+        for (String hash : looseIds(type)) {
+            objects.add(new PackFile.Entry(type, hash, looseFile(type, hash)));
+        }
+    }
+
+    private static byte[] read(byte type, String hash) {
+        try (InputStream in = open(type, hash)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return a stream over the content of the object, inflating it if it is compressed.
+     */
+    private static BufferedInputStream open(byte type, String hash) throws IOException {
+        InputStream raw = null;
+        for (PackFile pack : packs()) {
+            raw = pack.open(type, hash);
+            if (raw != null) {
+                break;
+            }
+        }
+        if (raw == null) {
+            File file = looseFile(type, hash);
+            if (!file.isFile()) {
+                throw new IllegalArgumentException("must be a normal file");
+            }
+            raw = new FileInputStream(file);
+        }
+        BufferedInputStream in = new BufferedInputStream(raw);
+        in.mark(DEFLATED_MAGIC.length);
+        if (Arrays.equals(in.readNBytes(DEFLATED_MAGIC.length), DEFLATED_MAGIC)) {
+            return new BufferedInputStream(new InflaterInputStream(in));
+        }
+        in.reset();
+        return in;
+    }
+
+    private static boolean contains(byte type, String hash) {
+        for (PackFile pack : packs()) {
+            if (pack.contains(type, hash)) {
+                return true;
+            }
+        }
+        return looseFile(type, hash).isFile();
+    }
+
+    /**
+     * Write HEADER followed by the content of IN as the loose object HASH, compressed unless
+     * {@code core.compression} is 0. The content is streamed through a fixed-size buffer.
+     * <p>
+     * The object is written to a temporary file and then renamed into place, so that several
+     * threads storing the same content never leave a half-written object behind.
+     */
+    private static void writeLoose(byte type, String hash, byte[] header, InputStream in)
+            throws IOException {
+        File target = looseFile(type, hash);
+        target.getParentFile().mkdirs();
+        int level = Config.getInt(Config.COMPRESSION, Deflater.DEFAULT_COMPRESSION);
+        Path temp = Files.createTempFile(Repository.GITLET_DIR.toPath(), "object", ".tmp");
+        try {
+            try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                if (level == Deflater.NO_COMPRESSION) {
+                    file.write(header);
+                    in.transferTo(file);
+                } else {
+                    Deflater deflater = new Deflater(level);
+                    try {
+                        file.write(DEFLATED_MAGIC);
+                        DeflaterOutputStream out = new DeflaterOutputStream(file, deflater);
+                        out.write(header);
+                        in.transferTo(out);
+                        out.finish();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            }
+            Files.move(temp, target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Return the loose file of the object HASH of the given type: the file named by all but the
+     * first two digits of HASH, in the subdirectory named by those two.
+     */
+    private static File looseFile(byte type, String hash) {
+        checkLayout();
+        return join(looseDir(type), hash.substring(0, 2), hash.substring(2));
+    }
+
+    /**
+     * Return the hashes of the loose objects of the given type, in lexicographic order.
+     */
+    private static List<String> looseIds(byte type) {
+        checkLayout();
+        List<String> ids = new ArrayList<>();
+        String[] shards = looseDir(type).list();
+        if (shards == null) {
+            return ids;
+        }
+        Arrays.sort(shards);
+        for (String shard : shards) {
+            List<String> names = shard.length() == 2
+                    ? plainFilenamesIn(join(looseDir(type), shard)) : null;
+            if (names != null) {
+                for (String name : names) {
+                    ids.add(shard + name);
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Move the loose objects of a repository written with flat directories into their
+     * subdirectories, once. LAYOUT is created last, so an interrupted migration is resumed by
+     * the next command.
+     */
+    private static synchronized void checkLayout() {
+        if (fanOut) {
+            return;
+        }
+        if (!LAYOUT.isFile()) {
+            try {
+                for (byte type : new byte[]{PackFile.COMMIT, PackFile.TREE, PackFile.BLOB}) {
+                    File dir = looseDir(type);
+                    List<String> flat = plainFilenamesIn(dir);
+                    if (flat == null) {
+                        continue;
+                    }
+                    for (String hash : flat) {
+                        File shard = join(dir, hash.substring(0, 2));
+                        shard.mkdir();
+                        Files.move(join(dir, hash).toPath(),
+                                join(shard, hash.substring(2)).toPath(),
+                                StandardCopyOption.ATOMIC_MOVE);
+                    }
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            writeContents(LAYOUT, "fan-out\n");
+        }
+        fanOut = true;
+    }
+
+    private static File looseDir(byte type) {
+        if (type == PackFile.COMMIT) {
+            return Repository.COMMITS_DIR;
+        }
+        return type == PackFile.TREE ? Repository.TREES_DIR : Repository.BLOBS_DIR;
+    }
+
+    /**
+     * Forget the packs opened and the layout checked so far, since another process may have
+     * changed them.
+     */
+    static synchronized void reload() {
+        packs = null;
+        fanOut = false;
+    }
+
+    /**
+     * Return the packs of this repository, opening them on first use. Synchronized because
+     * blobs are stored from several threads at once.
+     */
+    private static synchronized List<PackFile> packs() {
+        if (packs == null) {
+            packs = new ArrayList<>();
+            File[] idxFiles = PACKS_DIR.listFiles((dir, name) -> name.endsWith(".idx"));
+            if (idxFiles != null) {
+                for (File idxFile : idxFiles) {
+                    packs.add(new PackFile(idxFile));
+                }
+            }
+        }
+        return packs;
+    }
+}
@@ -0,0 +1,412 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.BufferedOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Represent a pack: many commits and blobs stored in one data file, plus a sorted index file.
+ * <p>
+ * A pack replaces thousands of loose object files by two files under ".gitlet/packs/":
+ * <ul>
+ *     <li>pack-[id].pack -- magic "GPAK", version, object count, then for every object a type
+ *     byte, a 4-byte length and the object bytes.</li>
+ *     <li>pack-[id].idx -- magic "GIDX", version, a 256-entry fan-out table, the sorted 20-byte
+ *     object ids, and the 8-byte offset of every object in the .pack file.</li>
+ * </ul>
+ * The fan-out entry i is the number of objects whose first id byte is less than or equal to i,
+ * so a lookup binary searches only the ids that share the first byte.
+ * <p>
+ * An id may appear once per type: a blob whose bytes are the encoding of a stored tree or commit
+ * has the same hash as that object. Such ids sit next to each other in the index.
+ * <p>
+ * Both files are read through read-only memory-mapped FileChannels.
+ *
+ * @author hdon694
+ */
+class PackFile {
+    /**
+     * Type byte of a commit object.
+     */
+    static final byte COMMIT = 1;
+    /**
+     * Type byte of a blob object.
+     */
+    static final byte BLOB = 2;
+    /**
+     * Type byte of a tree object.
+     */
+    static final byte TREE = 3;
+
+    /**
+     * Magic bytes at the start of a .pack file.
+     */
+    private static final int PACK_MAGIC = 0x4750414B; // "GPAK"
+    /**
+     * Magic bytes at the start of an .idx file.
+     */
+    private static final int IDX_MAGIC = 0x47494458; // "GIDX"
+    /**
+     * Version of both pack files.
+     */
+    private static final int VERSION = 1;
+    /**
+     * Number of bytes of an object id.
+     */
+    private static final int ID_BYTES = 20;
+    /**
+     * Size of the .idx header: magic and version.
+     */
+    private static final int IDX_HEADER = 8;
+    /**
+     * Size of the fan-out table.
+     */
+    private static final int FANOUT_BYTES = 256 * 4;
+
+    /**
+     * The mapped .idx file.
+     */
+    private final ByteBuffer idx;
+    /**
+     * The mapped .pack file.
+     */
+    private final ByteBuffer pack;
+    /**
+     * Number of objects in this pack.
+     */
+    private final int count;
+
+    /**
+     * Open the pack whose index file is given. The matching .pack file must exist.
+     *
+     * @param idxFile the .idx file of the pack.
+     */
+    PackFile(File idxFile) {
+        String base = idxFile.getName().substring(0, idxFile.getName().length() - 4);
+        this.idx = map(idxFile);
+        this.pack = map(Utils.join(idxFile.getParentFile(), base + ".pack"));
+        if (idx.getInt(0) != IDX_MAGIC || pack.getInt(0) != PACK_MAGIC) {
+            throw Utils.error("Corrupt pack %s.", base);
+        }
+        this.count = idx.getInt(IDX_HEADER + FANOUT_BYTES - 4);
+    }
+
+    /**
+     * Return a stream over the stored bytes of the object with the given hash and type, or null
+     * if this pack does not contain such an object. The stream reads straight from the mapped
+     * .pack file.
+     *
+     * @param type the type byte of the object.
+     * @param hash the 40 length hash of the object.
+     * @return a stream over the bytes of the object, or null.
+     */
+    InputStream open(byte type, String hash) {
+        int i = find(type, hash);
+        if (i < 0) {
+            return null;
+        }
+        int offset = offsetOf(i);
+        return new BufferInputStream(pack.slice(offset + 5, pack.getInt(offset + 1)));
+    }
+
+    /**
+     * Check if this pack contains the object with the given hash and type.
+     *
+     * @param type the type byte of the object.
+     * @param hash the 40 length hash of the object.
+     * @return true if the object is in this pack.
+     */
+    boolean contains(byte type, String hash) {
+        return find(type, hash) >= 0;
+    }
+
+    /**
+     * Return the hashes of all objects of the given type in this pack, in sorted order.
+     *
+     * @param type the type byte of the objects.
+     * @return the sorted hashes.
+     */
+    List<String> ids(byte type) {
+        List<String> result = new ArrayList<>();
+        byte[] id = new byte[ID_BYTES];
+        for (int i = 0; i < count; i++) {
+            if (pack.get(offsetOf(i)) == type) {
+                idx.get(idsStart() + ID_BYTES * i, id);
+                result.add(toHex(id));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Binary search the index for the object with the given hash and type.
+     *
+     * @param type the type byte of the object.
+     * @param hash the 40 length hash.
+     * @return the position of the object in the sorted ids, or -1 if it is absent.
+     */
+    private int find(byte type, String hash) {
+        if (hash == null || hash.length() != Utils.UID_LENGTH) {
+            return -1;
+        }
+        byte[] key = fromHex(hash);
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : idx.getInt(IDX_HEADER + 4 * (first - 1));
+        int hi = idx.getInt(IDX_HEADER + 4 * first) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareId(idsStart() + ID_BYTES * mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return findType(type, mid, key);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the position of the object of the given type among the ids equal to KEY around
+     * position I, or -1 if there is none.
+     */
+    private int findType(byte type, int i, byte[] key) {
+        int first = i;
+        while (first > 0 && compareId(idsStart() + ID_BYTES * (first - 1), key) == 0) {
+            first--;
+        }
+        for (int j = first; j < count && compareId(idsStart() + ID_BYTES * j, key) == 0; j++) {
+            if (pack.get(offsetOf(j)) == type) {
+                return j;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compare the id stored at the given position of the index with KEY, as unsigned bytes.
+     */
+    private int compareId(int position, byte[] key) {
+        for (int i = 0; i < ID_BYTES; i++) {
+            int cmp = Integer.compare(idx.get(position + i) & 0xff, key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private int idsStart() {
+        return IDX_HEADER + FANOUT_BYTES;
+    }
+
+    private int offsetsStart() {
+        return idsStart() + ID_BYTES * count;
+    }
+
+    /**
+     * Return the offset in the .pack file of the object at position I of the index. Packs are
+     * limited to 2 GB, so the offset always fits in an int.
+     */
+    private int offsetOf(int i) {
+        return (int) idx.getLong(offsetsStart() + 8 * i);
+    }
+
+    /**
+     * Write a new pack holding the given loose objects into DIR. The bytes of every loose file
+     * are copied into the pack unchanged.
+     *
+     * @param dir     the packs directory.
+     * @param objects the objects to pack, sorted by hash and type.
+     * @return the .idx file of the new pack.
+     */
+    static File write(File dir, List<Entry> objects) {
+        if (!dir.exists()) {
+            dir.mkdir();
+        }
+        StringBuilder ids = new StringBuilder();
+        for (Entry entry : objects) {
+            ids.append(entry.hash).append(entry.type);
+        }
+        String name = "pack-" + Utils.sha1(ids.toString());
+        File packFile = Utils.join(dir, name + ".pack");
+        File idxFile = Utils.join(dir, name + ".idx");
+        long[] offsets = new long[objects.size()];
+        int[] fanout = new int[256];
+
+        try {
+            File tmpPack = Utils.join(dir, name + ".pack.tmp");
+            try (DataOutputStream out = dataStream(tmpPack)) {
+                out.writeInt(PACK_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(objects.size());
+                int i = 0;
+                for (Entry entry : objects) {
+                    offsets[i++] = out.size();
+                    out.writeByte(entry.type);
+                    out.writeInt((int) entry.source.length());
+                    Files.copy(entry.source.toPath(), out);
+                }
+            }
+            if (Files.size(tmpPack.toPath()) > Integer.MAX_VALUE) {
+                tmpPack.delete();
+                throw Utils.error("Pack would exceed 2 GB.");
+            }
+
+            File tmpIdx = Utils.join(dir, name + ".idx.tmp");
+            try (DataOutputStream out = dataStream(tmpIdx)) {
+                out.writeInt(IDX_MAGIC);
+                out.writeInt(VERSION);
+                for (Entry entry : objects) {
+                    fanout[Integer.parseInt(entry.hash.substring(0, 2), 16)]++;
+                }
+                int total = 0;
+                for (int n : fanout) {
+                    total += n;
+                    out.writeInt(total);
+                }
+                for (Entry entry : objects) {
+                    out.write(fromHex(entry.hash));
+                }
+                for (long offset : offsets) {
+                    out.writeLong(offset);
+                }
+            }
+            // The .idx appears last, so a reader never sees an index without its data.
+            Files.move(tmpPack.toPath(), packFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            Files.move(tmpIdx.toPath(), idxFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return idxFile;
+    }
+
+    private static DataOutputStream dataStream(File file) throws IOException {
+        OutputStream out = Files.newOutputStream(file.toPath());
+        return new DataOutputStream(new BufferedOutputStream(out));
+    }
+
+    /**
+     * Map the whole file read-only.
+     */
+    static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Convert a 40 length hex hash into its 20 bytes.
+     */
+    static byte[] fromHex(String hash) {
+        byte[] result = new byte[hash.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) Integer.parseInt(hash.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    /**
+     * Convert 20 id bytes into the 40 length hex hash.
+     */
+    static String toHex(byte[] id) {
+        StringBuilder result = new StringBuilder(2 * id.length);
+        for (byte b : id) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16));
+            result.append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+
+    /**
+     * A loose object to be copied into a new pack.
+     */
+    static class Entry implements Comparable<Entry> {
+        /**
+         * The type byte of the object.
+         */
+        private final byte type;
+        /**
+         * The 40 length hash of the object.
+         */
+        private final String hash;
+        /**
+         * The loose file holding the object bytes.
+         */
+        private final File source;
+
+        Entry(byte type, String hash, File source) {
+            this.type = type;
+            this.hash = hash;
+            this.source = source;
+        }
+
+        byte type() {
+            return type;
+        }
+
+        String hash() {
+            return hash;
+        }
+
+        /**
+         * Order by hash, then by type.
+         */
+        @Override
+        public int compareTo(Entry other) {
+            int cmp = hash.compareTo(other.hash);
+            return cmp != 0 ? cmp : Byte.compare(type, other.type);
+        }
+    }
+
+    /**
+     * An InputStream over the remaining bytes of a ByteBuffer.
+     */
+    private static class BufferInputStream extends InputStream {
+        /**
+         * The bytes left to read.
+         */
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static gitlet.Utils.join;
+import static gitlet.Utils.plainFilenamesIn;
+
+/**
+ * Answer "which commits can be reached from this one" with bitmaps over the rows of the
+ * commit-graph, instead of walking the whole history.
+ * <p>
+ * The file ".gitlet/bitmaps" saves the reachability bitmap of selected commits: every branch tip
+ * and every commit whose generation is a multiple of {@code pack.bitmapInterval}. Bit i of the
+ * bitmap of a commit is set if the commit at row i of the commit-graph is the commit itself or
+ * one of its ancestors. Bitmaps are compressed with {@link Ewah}.
+ * <p>
+ * The ancestors of any commit are found by walking its history only until commits with a saved
+ * bitmap, and OR-ing those in. Then "is X an ancestor of Y" is a single bit test.
+ * <p>
+ * The file holds magic "GBMP", version, the number of commits in the commit-graph it was built
+ * for, and the number of bitmaps. Then for every bitmap: the 20-byte commit id, the length of
+ * the compressed bitmap and its bytes. The file is rewritten by {@code pack}, right after the
+ * commit-graph, and ignored if it does not match the commit-graph.
+ *
+ * @author hdon694
+ */
+class Reachability {
+    /**
+     * The bitmap file -- ".gitlet/bitmaps"
+     */
+    static final File FILE = join(Repository.GITLET_DIR, "bitmaps");
+
+    private static final int MAGIC = 0x47424D50; // "GBMP"
+    private static final int VERSION = 1;
+    private static final int DEFAULT_INTERVAL = 100;
+
+    /**
+     * The commit-graph whose rows the bitmaps refer to.
+     */
+    private final CommitGraph graph;
+    /**
+     * The file, or null if there is none.
+     */
+    private final ByteBuffer file;
+    /**
+     * Position and length of the saved bitmap of every selected commit.
+     */
+    private final Map<String, int[]> saved = new HashMap<>();
+    /**
+     * Bitmaps decoded or computed so far.
+     */
+    private final Map<String, BitSet> bitmaps = new HashMap<>();
+
+    private Reachability(CommitGraph graph, ByteBuffer file) {
+        this.graph = graph;
+        this.file = file;
+        if (file == null) {
+            return;
+        }
+        int entries = file.getInt(12);
+        int position = 16;
+        for (int i = 0; i < entries; i++) {
+            byte[] id = new byte[20];
+            file.get(position, id);
+            int length = file.getInt(position + 20);
+            saved.put(PackFile.toHex(id), new int[]{position + 24, length});
+            position += 24 + length;
+        }
+    }
+
+    /**
+     * Open the bitmaps of this repository. Without a bitmap file, or with one that is out of
+     * date, every query walks the history through the commit-graph.
+     *
+     * @param graph the commit-graph of this repository.
+     * @return the reachability index.
+     */
+    static Reachability load(CommitGraph graph) {
+        if (!FILE.isFile()) {
+            return new Reachability(graph, null);
+        }
+        ByteBuffer file = PackFile.map(FILE);
+        if (file.getInt(0) != MAGIC || file.getInt(4) != VERSION) {
+            throw Utils.error("Corrupt bitmap file.");
+        }
+        if (file.getInt(8) != graph.size()) {
+            return new Reachability(graph, null);
+        }
+        return new Reachability(graph, file);
+    }
+
+    /**
+     * Rewrite the bitmap file for GRAPH, which must contain every commit.
+     *
+     * @param graph the commit-graph just written.
+     */
+    static void write(CommitGraph graph) {
+        int interval = Config.getInt(Config.BITMAP_INTERVAL, DEFAULT_INTERVAL);
+        TreeSet<String> selected = new TreeSet<>(branchTips());
+        for (String hash : ObjectStore.commitIds()) {
+            if (interval > 0 && graph.generation(hash) % interval == 0) {
+                selected.add(hash);
+            }
+        }
+        // Oldest first, so every bitmap reuses the ones below it.
+        List<String> order = new ArrayList<>(selected);
+        order.sort(Comparator.comparingInt(graph::generation));
+        Reachability builder = new Reachability(graph, null);
+
+        File temp = join(Repository.GITLET_DIR, "bitmaps.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(graph.size());
+            out.writeInt(order.size());
+            for (String hash : order) {
+                BitSet bits = builder.ancestors(hash);
+                builder.bitmaps.put(hash, bits);
+                byte[] encoded = Ewah.encode(bits);
+                out.write(PackFile.fromHex(hash));
+                out.writeInt(encoded.length);
+                out.write(encoded);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), FILE.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Check if ANCESTOR is DESCENDANT itself or one of its ancestors.
+     *
+     * @param ancestor   the hash of the possible ancestor.
+     * @param descendant the hash of the possible descendant.
+     * @return true if ANCESTOR can be reached from DESCENDANT.
+     */
+    boolean isAncestor(String ancestor, String descendant) {
+        int row = graph.find(ancestor);
+        if (row != CommitGraph.NONE) {
+            return ancestors(descendant).get(row);
+        }
+        // Not in the commit-graph, so newer than it: walk until the commit-graph.
+        Set<String> seen = new HashSet<>();
+        Deque<String> visitStack = new ArrayDeque<>();
+        visitStack.push(descendant);
+        while (!visitStack.isEmpty()) {
+            String current = visitStack.pop();
+            if (current.equals(ancestor)) {
+                return true;
+            }
+            if (graph.find(current) == CommitGraph.NONE && seen.add(current)) {
+                for (String parent : graph.parents(current)) {
+                    visitStack.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the bitmap of the commits of the commit-graph that can be reached from a commit,
+     * the commit included.
+     *
+     * @param hash the hash of the commit.
+     * @return a bitmap over the rows of the commit-graph.
+     */
+    BitSet ancestors(String hash) {
+        BitSet known = bitmap(hash);
+        if (known != null) {
+            return known;
+        }
+        BitSet bits = new BitSet(graph.size());
+        Set<String> outside = new HashSet<>();
+        Deque<String> visitStack = new ArrayDeque<>();
+        visitStack.push(hash);
+        while (!visitStack.isEmpty()) {
+            String current = visitStack.pop();
+            int row = graph.find(current);
+            if (row == CommitGraph.NONE ? !outside.add(current) : bits.get(row)) {
+                continue;
+            }
+            BitSet stored = bitmap(current);
+            if (stored != null) {
+                bits.or(stored);
+                continue;
+            }
+            if (row != CommitGraph.NONE) {
+                bits.set(row);
+            }
+            for (String parent : graph.parents(current)) {
+                visitStack.push(parent);
+            }
+        }
+        bitmaps.put(hash, bits);
+        return bits;
+    }
+
+    /**
+     * Return the saved or computed bitmap of a commit, or null.
+     */
+    private BitSet bitmap(String hash) {
+        BitSet bits = bitmaps.get(hash);
+        if (bits == null && saved.containsKey(hash)) {
+            int[] location = saved.get(hash);
+            bits = Ewah.decode(file.duplicate().position(location[0]), location[1]);
+            bitmaps.put(hash, bits);
+        }
+        return bits;
+    }
+
+    /**
+     * Return the commit every branch points at.
+     */
+    private static List<String> branchTips() {
+        List<String> tips = new ArrayList<>();
+        List<String> branches = plainFilenamesIn(Repository.BRANCH_DIR);
+        if (branches != null) {
+            for (String branch : branches) {
+                tips.add(Branch.readFromFile(branch).getCommitHash());
+            }
+        }
+        return tips;
+    }
+}
@@ -0,0 +1,176 @@
+package gitlet;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static gitlet.Utils.join;
+import static gitlet.Utils.readContentsAsString;
+import static gitlet.Utils.writeContents;
+
+/**
+ * Hold the state shared by everything one run of gitlet does in the repository, so that it is
+ * read from disk once:
+ * <ul>
+ *     <li>HEAD, the heads of the branches and the index, each read on first use. Saving one of
+ *     them through {@link Branch}, {@link StagingArea} or {@code Repository} also updates it
+ *     here, so a command never reads back what it just wrote.</li>
+ *     <li>The commit cache: every commit lookup goes through it, and a commit read once by a
+ *     history walk is not read again by the next one.</li>
+ * </ul>
+ * The {@link Daemon} calls {@link #refresh()} before every command it runs, since HEAD, the
+ * branches and the index may have been changed by other processes in between. Commits never
+ * change, so the commit cache is kept.
+ * <p>
+ * The cache keeps at most {@code core.commitCache} commits (DEFAULT_COMMIT_CACHE by default),
+ * dropping the least recently used. When the environment variable GITLET_CACHE_STATS is set, its
+ * hit and miss counts are printed to standard error at exit, to help choose the size.
+ *
+ * @author hdon694
+ */
+class RepoContext {
+    /**
+     * Default of {@code core.commitCache}.
+     */
+    private static final int DEFAULT_COMMIT_CACHE = 1024;
+
+    /**
+     * The context of this run, created on first use.
+     */
+    private static RepoContext current;
+
+    /**
+     * Commits by hash.
+     */
+    private final LruCache<String, Commit> commits;
+    /**
+     * The content of HEADER, or null until it is read.
+     */
+    private String head;
+    /**
+     * The head commit of every branch read or saved so far, by branch name.
+     */
+    private final Map<String, String> refs = new HashMap<>();
+    /**
+     * The index, or null until it is read.
+     */
+    private StagingArea index;
+
+    private RepoContext() {
+        commits = new LruCache<>(Config.getInt(Config.COMMIT_CACHE, DEFAULT_COMMIT_CACHE));
+    }
+
+    /**
+     * Return the context of this run.
+     *
+     * @return the repository context.
+     */
+    static synchronized RepoContext get() {
+        if (current == null) {
+            current = new RepoContext();
+        }
+        return current;
+    }
+
+    /**
+     * Forget HEAD, the branches and the index, so that they are read again on next use.
+     */
+    void refresh() {
+        head = null;
+        refs.clear();
+        index = null;
+    }
+
+    /**
+     * Return the content of HEADER: the path of the branch file of the current branch, relative
+     * to the .gitlet directory.
+     *
+     * @return the content of HEADER.
+     */
+    String head() {
+        if (head == null) {
+            head = readContentsAsString(Repository.HEAD_POINTER);
+        }
+        return head;
+    }
+
+    /**
+     * Write HEADER.
+     *
+     * @param value the path of the branch file, relative to the .gitlet directory.
+     */
+    void setHead(String value) {
+        writeContents(Repository.HEAD_POINTER, value);
+        head = value;
+    }
+
+    /**
+     * Return the head commit of a branch.
+     *
+     * @param branchName the name of the branch.
+     * @return the hash of its head commit.
+     * @throws IllegalArgumentException if there is no such branch.
+     */
+    String ref(String branchName) {
+        String hash = refs.get(branchName);
+        if (hash == null) {
+            hash = readContentsAsString(join(Repository.BRANCH_DIR, branchName));
+            refs.put(branchName, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Record that a branch file was written.
+     *
+     * @param branchName the name of the branch.
+     * @param hash       the hash of its head commit, or null if the branch was deleted.
+     */
+    void setRef(String branchName, String hash) {
+        if (hash == null) {
+            refs.remove(branchName);
+        } else {
+            refs.put(branchName, hash);
+        }
+    }
+
+    /**
+     * Return the index.
+     *
+     * @return the staging area saved in ".gitlet/index".
+     */
+    StagingArea index() {
+        if (index == null) {
+            index = StagingArea.readFromFile();
+        }
+        return index;
+    }
+
+    /**
+     * Record that the index was written.
+     *
+     * @param staging the staging area just saved.
+     */
+    void setIndex(StagingArea staging) {
+        index = staging;
+    }
+
+    /**
+     * Return the commit with the given hash, from the cache or from the object store.
+     *
+     * @param hash the 40 length hash of the commit.
+     * @return the commit.
+     */
+    Commit commit(String hash) {
+        return commits.get(hash, Commit::load);
+    }
+
+    /**
+     * Return the hit and miss counts of the caches, in one line.
+     *
+     * @return the cache statistics.
+     */
+    String stats() {
+        return String.format("commit cache: %d hits, %d misses, %d cached",
+                commits.hits(), commits.misses(), commits.size());
+    }
+}
@@ -1,9 +1,24 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.function.Predicate;
 
 import static gitlet.Utils.*;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 // : any imports you need here
 
@@ -35,6 +50,10 @@ public class Repository {
      * The commits object directory -- ".gitlet/commits/"
      */
     public static final File COMMITS_DIR = join(GITLET_DIR, "commits");
+    /**
+     * The trees object directory -- ".gitlet/trees/"
+     */
+    public static final File TREES_DIR = join(GITLET_DIR, "trees");
 
     /**
      * The HEAD pointer
@@ -86,40 +105,67 @@ public class Repository {
 
 
     /**
-     * gitlet add [filename] command.
+     * gitlet add [filename]... command.
      * <p>
      * <ol>
-     * <li>Read the file to be added.</li>
-     * <li>Save file as blob and get the hash.</li>
      * <li>Read the indexing file (of staging).</li>
+     * <li>Read the files to be added. {@code .} stands for every file in the working directory.
+     * </li>
+     * <li>Save the files as blobs and get their hashes, on all cores.</li>
      * <li>Update the index(HashMap) by {@code <filename, fileHash>} pairs. </li>
      * </ol>
      * It is not necessary to save or update the real staging areas.
      * We calculate the staging area that displayed in status command by compare the indexing file
      * and the index from current commit.
      * <p>
-     * In real git, multiple files may be added at once. In gitlet, only one file may be added at
-     * a time.
+     * All the files are added in one process and the index is written once at the end, so adding
+     * many files at once costs one read and one write of the index. Files whose stat data has not
+     * changed since they were last hashed are skipped.
      * <p>
-     * Failure cases: File does not exist.
+     * Failure cases: File does not exist. Nothing is added if any file is missing.
      *
-     * @param filename the file to be added
+     * @param filenames the files to be added
      */
-    public static void addCommand(String filename) {
-        File file = join(CWD, filename);
-
-        // Failure cases.
-        if (!file.exists()) {
-            System.out.println("File does not exist.");
-            System.exit(0);
+    public static void addCommand(List<String> filenames) {
+        // Expand directories and drop duplicates, in a fixed order.
+        TreeSet<String> names = new TreeSet<>();
+        for (String filename : filenames) {
+            File file = join(CWD, filename);
+            // Failure cases.
+            if (!file.isFile() && !file.isDirectory()) {
+                throw new GitletException("File does not exist.");
+            }
+            if (file.isDirectory()) {
+                names.addAll(workingFiles(file));
+            } else {
+                names.add(workingPath(file.toPath()));
+            }
         }
 
-        // Save file and calculate the sha1 of the file
-        String fileHash = saveBlobContent(file);
-
-        // Read the index from current staging index, update, and then save.
+        // Read the index from current staging index.
         StagingArea indexStaging = getCurrentStaging();
-        indexStaging.put(filename, fileHash);
+
+        // Save files and calculate the sha1 of the files, the tracked versions are the delta
+        // bases. The stat data is taken first, so a change while hashing is noticed later.
+        List<String> changedNames = new ArrayList<>();
+        List<File> changedFiles = new ArrayList<>();
+        List<String> baseHashes = new ArrayList<>();
+        List<StagingArea.FileStat> stats = new ArrayList<>();
+        for (String filename : names) {
+            File file = join(CWD, filename);
+            if (!indexStaging.isUnchanged(filename, file)) {
+                changedNames.add(filename);
+                changedFiles.add(file);
+                baseHashes.add(indexStaging.getFileHash(filename));
+                stats.add(StagingArea.FileStat.of(file));
+            }
+        }
+        List<String> hashes = saveBlobContents(changedFiles, baseHashes);
+
+        // Update the index, and then save once.
+        for (int i = 0; i < changedNames.size(); i++) {
+            indexStaging.put(changedNames.get(i), hashes.get(i), stats.get(i));
+        }
         indexStaging.saveStagingToFile();
 
     }
@@ -172,19 +218,18 @@ public class Repository {
 
         // Failure case 1
         if (lastCommit.hasSameIndex(indexStaging)) {
-            System.out.println("No changes added to the commit.");
-            System.exit(0);
+            throw new GitletException("No changes added to the commit.");
         }
 
         // Failure case 2
         if (message.isEmpty()) {
-            System.out.println("Please enter a commit message.");
-            System.exit(0);
+            throw new GitletException("Please enter a commit message.");
         }
 
         Commit newCommit = new Commit(indexStaging, new Date(), message, getLastCommitHash(),
                 secondParent);
         newCommit.saveCommitToFile();
+        MessageIndex.add(newCommit.getHash());
 
         // Read the branch from branch file.
         Branch branch = getCurrentBranch();
@@ -216,15 +261,14 @@ public class Repository {
         // Failure cases
         if (!lastCommit.containsFile(filename) && !indexStaging.containsFile(
                 filename)) {
-            System.out.println("No reason to remove the file.");
-            System.exit(0);
+            throw new GitletException("No reason to remove the file.");
         }
 
         indexStaging.removeFile(filename);
         indexStaging.saveStagingToFile();
 
         if (lastCommit.containsFile(filename)) {
-            restrictedDelete(filename);
+            deleteWorkingFile(filename);
         }
 
     }
@@ -267,21 +311,17 @@ public class Repository {
     public static void checkoutCommand(String commitID, String filename) {
         String commitIDLength40 = getFullCommentID(commitID);
         // Failure case
-        if (commitIDLength40 == null || !join(COMMITS_DIR, commitIDLength40).exists()) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+        if (commitIDLength40 == null || !ObjectStore.hasCommit(commitIDLength40)) {
+            throw new GitletException("No commit with that id exists.");
         }
 
         Commit source = Commit.readFromFile(commitIDLength40);
         String targetFileID = source.getFileHash(filename);
         // Failure case
         if (targetFileID == null) {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+            throw new GitletException("File does not exist in that commit.");
         }
-        String content = readBlobContent(targetFileID);
-
-        writeContents(join(CWD, filename), content);
+        writeBlobToFile(targetFileID, join(CWD, filename));
     }
 
 
@@ -314,16 +354,14 @@ public class Repository {
 
         // Failure case.
         if (!branchFile.exists()) {
-            System.out.println("No such branch exists.");
-            System.exit(0);
+            throw new GitletException("No such branch exists.");
         }
 
         // Get the name of current branch.
         String currentBranchName = getCurrentBranchName();
         // Failure case. Check if two branches are same branch.
         if (branchName.equals(currentBranchName)) {
-            System.out.println("No need to checkout the current branch.");
-            System.exit(0);
+            throw new GitletException("No need to checkout the current branch.");
         }
 
         // Read from target branch file.
@@ -350,38 +388,38 @@ public class Repository {
      * merged-in branch. </li>
      *
      * <p>Error cases: No</p>
-     * <p>Utilize Commit.toString() method</p>
+     * <p>Print the headers kept by {@link CommitMeta}, formatted like Commit.toString(), so that
+     * no commit object is read.</p>
      * <p>Commits history is a linked list data structure</p>
+     * <p>Commits are walked lazily, so with a LIMIT only the first LIMIT of them are read.</p>
+     *
+     * @param limit  the largest number of commits to print, or -1 for all of them.
+     * @param format the template of {@link CommitMeta#format(int, String)} to print every commit
+     *               with, followed by a line separator, or null for the format above.
      */
-    public static void logCommand() {
+    public static void logCommand(int limit, String format) {
         String hash = getLastCommitHash();
-        while (true) {
-            Commit commit = Commit.readFromFile(hash);
-            // Prepend '===' and append empty line to the commit message.
-            System.out.printf("===%n%s%n", commit);
-
-            if (commit.isInitCommit()) {
-                break;
-            }
-            hash = commit.getParent();
+        CommitMeta meta = CommitMeta.load();
+        int row = meta.rowOf(hash);
+        if (row == CommitMeta.NONE) {
+            meta = CommitMeta.rebuild();
+            row = meta.rowOf(hash);
         }
+        printLog(meta, meta.firstParents(row), limit, format);
     }
 
     /**
      * gitlet global-log command.
      * Like log, except displays information about all commits ever made. The order of the commits
      * does not matter.
+     *
+     * @param limit  the largest number of commits to print, or -1 for all of them.
+     * @param format the template to print every commit with, or null for the format of log.
      */
-    public static void globalLogCommand() {
-        List<String> commitFiles = plainFilenamesIn(COMMITS_DIR);
-        if (commitFiles == null) {
-            return;
-        }
-        for (String commitFile : commitFiles) {
-            Commit commit = Commit.readFromFile(commitFile);
-            // Prepend '===' and append empty line to the commit message.
-            System.out.printf("===%n%s%n", commit);
-        }
+    public static void globalLogCommand(int limit, String format) {
+        CommitMeta meta = CommitMeta.load();
+        // In id order, as the commits are listed in the object store.
+        printLog(meta, meta.byId(), limit, format);
     }
 
     /**
@@ -394,24 +432,18 @@ public class Repository {
      * <p>
      * Failure cases: If no such commit exists, prints the error message "Found no commit with that
      * message."
+     * <p>
+     * Only the commits that the {@link MessageIndex} gives as candidates are read.
      *
      * @param message a single operand; to indicate a multiword message, put the operand in
      *                quotation marks.
      */
     public static void findCommand(String message) {
-        List<String> commitFiles = plainFilenamesIn(COMMITS_DIR);
-        if (commitFiles == null) {
-            return;
-        }
-        boolean found = false;
-        for (String commitFile : commitFiles) {
-            Commit commit = Commit.readFromFile(commitFile);
-            if (commit.findMessage(message)) {
-                found = true;
-                System.out.println(commit.getHash());
-            }
+        List<String> matches = MessageIndex.find(message);
+        for (String hash : matches) {
+            System.out.println(hash);
         }
-        if (!found) {
+        if (matches.isEmpty()) {
             System.out.println("Found no commit with that message.");
         }
     }
@@ -494,35 +526,54 @@ public class Repository {
                 removedFiles.add(filename);
             }
         }
-        // All files in working directory
-        List<String> fileLists = plainFilenamesIn(CWD);
+        // All files in working directory, including subdirectories
+        Set<String> fileLists = new HashSet<>(workingFiles(CWD));
         // Prepare modified files
         Set<String> modifiedFiles = new TreeSet<>();
         Set<String> untrackedFiles = new TreeSet<>();
+        boolean statRefreshed = false;
 
         // Prepare modified files - Deleted files
         for (Map.Entry<String, String> entry : currentStagingFileSet) {
-            if (fileLists == null || !fileLists.contains(entry.getKey())) {
+            if (!fileLists.contains(entry.getKey())) {
                 modifiedFiles.add(entry.getKey() + " (deleted)");
             }
         }
 
         // Prepare the untracked files
-        if (fileLists != null) { // Might be null if the directory is empty
-            for (String fileName : fileLists) {
-
-                if (!currentStaging.containsFile(fileName)) {
-                    untrackedFiles.add(fileName);
-                } else {
-                    Map.Entry<String, String> fileEntry = new AbstractMap.SimpleEntry<>(
-                            fileName,
-                            sha1(readContentsAsString(join(CWD, fileName))));
-                    if (!currentStagingFileSet.contains(fileEntry)) {
-                        modifiedFiles.add(fileName + " (modified)");
-                    }
-                }
+        List<String> changedNames = new ArrayList<>();
+        List<File> changedFiles = new ArrayList<>();
+        for (String fileName : fileLists) {
+
+            File file = join(CWD, fileName);
+            if (!currentStaging.containsFile(fileName)) {
+                untrackedFiles.add(fileName);
+            } else if (!currentStaging.isUnchanged(fileName, file)) {
+                // Stat data changed or is racy, so the file must be hashed.
+                changedNames.add(fileName);
+                changedFiles.add(file);
+            }
+        }
+        // Hash those files on all cores. The stat data is taken first, so a change while hashing
+        // is noticed later.
+        List<StagingArea.FileStat> stats = new ArrayList<>();
+        for (File file : changedFiles) {
+            stats.add(StagingArea.FileStat.of(file));
+        }
+        List<String> hashes = HashEngine.hash(changedFiles);
+        for (int i = 0; i < changedNames.size(); i++) {
+            String fileName = changedNames.get(i);
+            if (!hashes.get(i).equals(currentStaging.getFileHash(fileName))) {
+                modifiedFiles.add(fileName + " (modified)");
+            } else {
+                currentStaging.put(fileName, hashes.get(i), stats.get(i));
+                statRefreshed = true;
             }
         }
+        // Save the stat data of files found unchanged, so they are not hashed next time.
+        if (statRefreshed) {
+            currentStaging.saveStagingToFile();
+        }
         // Display the branches
         System.out.println("=== Branches ===");
         printBranchStatus();
@@ -566,14 +617,47 @@ public class Repository {
     public static void branchCommand(String branchName) {
         // Failure case
         if (join(BRANCH_DIR, branchName).exists()) {
-            System.out.println("A branch with that name already exists.");
-            System.exit(0);
+            throw new GitletException("A branch with that name already exists.");
         }
 
         Branch newBranch = new Branch(getCurrentBranch(), branchName);
         newBranch.saveBranchToFile();
     }
 
+    /**
+     * gitlet branch --contains [commit id] command.
+     * <p>
+     * Lists the branches whose head commit is the given commit or one of its descendants, marking
+     * the current branch with a '*' as in status. Each check is one bit test on the reachability
+     * bitmap of the branch head.
+     * <p>
+     * Failure cases: If no commit with the given id exists, print No commit with that id exists.
+     *
+     * @param commitID the id of commit, can be 40 full-length hash or shorter hash.
+     */
+    public static void branchContainsCommand(String commitID) {
+        String commitIDLength40 = getFullCommentID(commitID);
+        // Failure case
+        if (commitIDLength40 == null || !ObjectStore.hasCommit(commitIDLength40)) {
+            throw new GitletException("No commit with that id exists.");
+        }
+        Reachability reachability = Reachability.load(CommitGraph.load());
+        printBranches(branch -> reachability.isAncestor(commitIDLength40, branch));
+    }
+
+    /**
+     * gitlet branch --merged command.
+     * <p>
+     * Lists the branches whose head commit is the current head commit or one of its ancestors,
+     * so merging them would change nothing. The current branch is marked with a '*' as in status.
+     * All the checks are bit tests on the reachability bitmap of the current head commit.
+     */
+    public static void branchMergedCommand() {
+        String head = getLastCommitHash();
+        Reachability reachability = Reachability.load(CommitGraph.load());
+        printBranches(branch -> reachability.isAncestor(branch, head));
+    }
+
     /**
      * gitlet rm-branch [branch name] command.
      * <p>
@@ -591,14 +675,12 @@ public class Repository {
         File branchFile = join(BRANCH_DIR, branchName);
         // Failure case
         if (!branchFile.exists()) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw new GitletException("A branch with that name does not exist.");
         }
 
         // Failure case
         if (branchName.equals(getCurrentBranchName())) {
-            System.out.println("Cannot remove the current branch.");
-            System.exit(0);
+            throw new GitletException("Cannot remove the current branch.");
         }
 
         // Restrict delete branch file
@@ -606,6 +688,7 @@ public class Repository {
             throw new IllegalArgumentException("Not deleting branch file.");
         }
         branchFile.delete();
+        RepoContext.get().setRef(branchName, null);
     }
 
     /**
@@ -621,9 +704,8 @@ public class Repository {
     public static void resetCommand(String commitID) {
         String commitIDLength40 = getFullCommentID(commitID);
         // Failure case
-        if (commitIDLength40 == null || !join(COMMITS_DIR, commitIDLength40).exists()) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+        if (commitIDLength40 == null || !ObjectStore.hasCommit(commitIDLength40)) {
+            throw new GitletException("No commit with that id exists.");
         }
 
         // Change files in working directory.
@@ -664,43 +746,37 @@ public class Repository {
         String targetBranchHash = Branch.readFromFile(branchNameMergeFrom).getCommitHash();
 
         // Merge is complete or fast-forwarded.
-        String lca = lowestCommonAncestor(currentBranchHash, targetBranchHash);
-        if (lca.equals(targetBranchHash)) {
-            System.out.println("Given branch is an ancestor of the current branch.");
-            System.exit(0);
+        Reachability reachability = Reachability.load(CommitGraph.load());
+        if (reachability.isAncestor(targetBranchHash, currentBranchHash)) {
+            throw new GitletException("Given branch is an ancestor of the current branch.");
         }
-        if (lca.equals(currentBranchHash)) {
+        if (reachability.isAncestor(currentBranchHash, targetBranchHash)) {
             checkoutBranchCommand(branchNameMergeFrom);
             System.out.println("Current branch fast-forwarded.");
-            System.exit(0);
+            return;
         }
         // Otherwise, continue merge.
         // it is like diff3 in git.
+        String lca = lowestCommonAncestor(currentBranchHash, targetBranchHash);
         Commit currentCommit = getLastCommit();
         Commit givenCommit = Commit.readFromFile(targetBranchHash);
         Commit lcaCommit = Commit.readFromFile(lca);
         StagingArea newIndex = getCurrentStaging();
         // If there is an untracked file
         if (hasUntrackedFile(givenCommit)) {
-            System.out.println(
-                    "There is an untracked file in the way; "
-                            + "delete it, or add and commit it first.");
-            System.exit(0);
+            throw new GitletException("There is an untracked file in the way; "
+                    + "delete it, or add and commit it first.");
         }
         for (String fileName : givenCommit.getFileNames()) {
             // Case 1
             if (modified(fileName, lcaCommit, givenCommit) && notModified(fileName, lcaCommit,
                     currentCommit)) {
-                writeContents(
-                        join(CWD, fileName),
-                        readBlobContent(givenCommit.getFileHash(fileName)));
+                writeBlobToFile(givenCommit.getFileHash(fileName), join(CWD, fileName));
                 newIndex.put(fileName, givenCommit.getFileHash(fileName));
             }
             // Case 5
             if (!lcaCommit.containsFile(fileName) && !currentCommit.containsFile(fileName)) {
-                writeContents(
-                        join(CWD, fileName),
-                        readBlobContent(givenCommit.getFileHash(fileName)));
+                writeBlobToFile(givenCommit.getFileHash(fileName), join(CWD, fileName));
                 newIndex.put(fileName, givenCommit.getFileHash(fileName));
             }
         }
@@ -708,27 +784,29 @@ public class Repository {
         for (String fileName : currentCommit.getFileNames()) {
             if (notModified(fileName, lcaCommit, currentCommit) && !givenCommit.containsFile(
                     fileName)) {
-                restrictedDelete(fileName);
+                deleteWorkingFile(fileName);
                 newIndex.removeFile(fileName);
             }
         }
         // case 8
-        boolean isConflict = false;
+        List<String> conflictNames = new ArrayList<>();
+        List<File> conflictFiles = new ArrayList<>();
+        List<String> baseHashes = new ArrayList<>();
         for (String fileName : lcaCommit.getFileNames()) {
             if (isConflict(fileName, lcaCommit, currentCommit, givenCommit)) {
-                String contentOfCurrentFile = currentCommit.containsFile(fileName)
-                        ? readBlobContent(currentCommit.getFileHash(fileName)) : "";
-                String contentOfGivenFile = givenCommit.containsFile(fileName)
-                        ? readBlobContent(givenCommit.getFileHash(fileName)) : "";
-                String contentOfMerged = String.format("<<<<<<< HEAD\n%s=======\n%s>>>>>>>\n",
-                        contentOfCurrentFile, contentOfGivenFile);
-
-                writeContents(join(CWD, fileName), contentOfMerged);
-                String fileHash = saveBlobContent(join(CWD, fileName));
-                newIndex.put(fileName, fileHash);
-                isConflict = true;
+                writeConflictToFile(currentCommit.getFileHash(fileName),
+                        givenCommit.getFileHash(fileName), join(CWD, fileName));
+                conflictNames.add(fileName);
+                conflictFiles.add(join(CWD, fileName));
+                baseHashes.add(currentCommit.getFileHash(fileName));
             }
         }
+        // Save the conflicted files on all cores.
+        List<String> conflictHashes = saveBlobContents(conflictFiles, baseHashes);
+        for (int i = 0; i < conflictNames.size(); i++) {
+            newIndex.put(conflictNames.get(i), conflictHashes.get(i));
+        }
+        boolean isConflict = !conflictNames.isEmpty();
         newIndex.saveStagingToFile();
         commitCommand(
                 String.format("Merged %s into %s.", branchNameMergeFrom, getCurrentBranchName()),
@@ -741,18 +819,15 @@ public class Repository {
     private static void mergeFailCases(String branchNameMergeFrom) {
         // If there are staged additions or removals present.
         if (!getLastCommit().hasSameIndex(getCurrentStaging())) {
-            System.out.println("You have uncommitted changes.");
-            System.exit(0);
+            throw new GitletException("You have uncommitted changes.");
         }
         // If the given branch does not exist.
         if (!join(BRANCH_DIR, branchNameMergeFrom).exists()) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw new GitletException("A branch with that name does not exist.");
         }
         // If attempting to merge a branch with itself
         if (branchNameMergeFrom.equals(getCurrentBranchName())) {
-            System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
+            throw new GitletException("Cannot merge a branch with itself.");
         }
 
     }
@@ -775,24 +850,187 @@ public class Repository {
     }
 
 
+    /**
+     * gitlet pack command.
+     * <p>
+     * Moves every loose commit and blob into a single pack under ".gitlet/packs/", so that a
+     * large history costs two files instead of one file per object. Later reads look objects
+     * up in the packs first, and then fall back to loose files. Then rewrites the commit-graph
+     * with every commit, and the reachability bitmaps of the branch heads and of every
+     * {@code pack.bitmapInterval}-th generation.
+     */
+    public static void packCommand() {
+        ObjectStore.packLooseObjects();
+        CommitGraph.write();
+        Reachability.write(CommitGraph.load());
+        CommitIndex.rebuild();
+    }
+
+    /**
+     * gitlet diff [commit id [commit id]] [-- file name] command.
+     * <p>
+     * Prints the changes as a unified diff, file by file in order:
+     * <ul>
+     *     <li>diff -- from the index to the working directory, i.e. what is not staged.</li>
+     *     <li>diff [commit id] -- from the commit to the working directory.</li>
+     *     <li>diff [commit id] [commit id] -- from the first commit to the second.</li>
+     * </ul>
+     * Only tracked files are compared: the files of the commits, and of the index when the
+     * working directory is one side. With a file name, only that file is compared.
+     * <p>
+     * The changed files are found by comparing the hashes of both sides, so a file with the same
+     * hash on both sides is skipped without reading it. A working file whose stat data did not
+     * change since it was staged has the hash in the index, and is not even hashed.
+     * <p>
+     * Failure cases:
+     * If no commit with a given id exists, print "No commit with that id exists."
+     *
+     * @param from     the id of the old commit, or null for the index.
+     * @param to       the id of the new commit, or null for the working directory.
+     * @param fileName the file to compare, or null for all of them.
+     */
+    public static void diffCommand(String from, String to, String fileName) {
+        StagingArea index = getCurrentStaging();
+        Map<String, String> oldFiles = from == null
+                ? fileMap(index.fileEntrySet()) : fileMap(commitForDiff(from).fileEntrySet());
+        Map<String, String> newFiles;
+        if (to != null) {
+            newFiles = fileMap(commitForDiff(to).fileEntrySet());
+        } else {
+            newFiles = workingFileMap(index, oldFiles.keySet());
+        }
+
+        TreeSet<String> fileNames = new TreeSet<>(oldFiles.keySet());
+        fileNames.addAll(newFiles.keySet());
+        if (fileName != null) {
+            fileNames.retainAll(Set.of(fileName));
+        }
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out,
+                ISO_8859_1)));
+        for (String name : fileNames) {
+            String oldHash = oldFiles.get(name);
+            String newHash = newFiles.get(name);
+            if (Objects.equals(oldHash, newHash)) {
+                continue;
+            }
+            byte[] newContent;
+            if (newHash == null) {
+                newContent = null;
+            } else if (to == null) {
+                newContent = readContents(join(CWD, name));
+            } else {
+                newContent = readBlob(newHash);
+            }
+            Diff.print(out, name, oldHash == null ? null : readBlob(oldHash), newContent);
+        }
+        out.flush();
+    }
+
     //
     // Below is helper method
     //
 
+    /**
+     * Return the commit with the given id, which may be abbreviated, for {@code diff}.
+     *
+     * @param commitID the id of the commit.
+     * @return the commit.
+     */
+    private static Commit commitForDiff(String commitID) {
+        String commitIDLength40 = getFullCommentID(commitID);
+        if (commitIDLength40 == null || !ObjectStore.hasCommit(commitIDLength40)) {
+            throw new GitletException("No commit with that id exists.");
+        }
+        return Commit.readFromFile(commitIDLength40);
+    }
+
+    private static Map<String, String> fileMap(Set<Map.Entry<String, String>> entries) {
+        Map<String, String> files = new HashMap<>();
+        for (Map.Entry<String, String> entry : entries) {
+            files.put(entry.getKey(), entry.getValue());
+        }
+        return files;
+    }
+
+    /**
+     * Return the hashes of the working files among the files of the index and OTHERS, by name.
+     * Missing files are left out. Files whose stat data matches the index get the hash in the
+     * index; the others are hashed on all cores.
+     *
+     * @param index  the current index.
+     * @param others more files to look for.
+     * @return the hashes of the working files.
+     */
+    private static Map<String, String> workingFileMap(StagingArea index, Set<String> others) {
+        TreeSet<String> fileNames = new TreeSet<>(index.getFileNames());
+        fileNames.addAll(others);
+        Map<String, String> files = new HashMap<>();
+        List<String> changedNames = new ArrayList<>();
+        List<File> changedFiles = new ArrayList<>();
+        for (String fileName : fileNames) {
+            File file = join(CWD, fileName);
+            if (!file.isFile()) {
+                continue;
+            }
+            if (index.containsFile(fileName) && index.isUnchanged(fileName, file)) {
+                files.put(fileName, index.getFileHash(fileName));
+            } else {
+                changedNames.add(fileName);
+                changedFiles.add(file);
+            }
+        }
+        List<String> hashes = HashEngine.hash(changedFiles);
+        for (int i = 0; i < changedNames.size(); i++) {
+            files.put(changedNames.get(i), hashes.get(i));
+        }
+        return files;
+    }
+
+    /**
+     * Return the whole content of the blob with the given hash.
+     *
+     * @param hash the hash of the blob.
+     * @return the content of the blob.
+     */
+    private static byte[] readBlob(String hash) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        ObjectStore.copyBlob(hash, content);
+        return content.toByteArray();
+    }
+
+    /**
+     * Print at most LIMIT of the commits ROWS, all of them if LIMIT is -1, through one buffered
+     * writer. ROWS is not advanced past the last commit printed.
+     */
+    private static void printLog(CommitMeta meta, Iterator<Integer> rows, int limit,
+                                 String format) {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+        for (int printed = 0; rows.hasNext() && printed != limit; printed++) {
+            int row = rows.next();
+            if (format == null) {
+                // Prepend '===' and append empty line to the commit message.
+                out.printf("===%n%s%n", meta.format(row));
+            } else {
+                out.println(meta.format(row, format));
+            }
+        }
+        out.flush();
+    }
+
     /**
      * Create as many as the folders that used in a gitlet system.
      */
     private static void initGitletFolder() {
         if (GITLET_DIR.exists()) {
-            System.out.println("A Gitlet version-control system already exists in the current"
+            throw new GitletException("A Gitlet version-control system already exists in the current"
                     + " directory.");
-            System.exit(0);
         }
 
         GITLET_DIR.mkdir();
         BRANCH_DIR.mkdir();
         BLOBS_DIR.mkdir();
         COMMITS_DIR.mkdir();
+        TREES_DIR.mkdir();
     }
 
     /**
@@ -810,7 +1048,7 @@ public class Repository {
      */
     private static void saveTheHEADER(Branch branch) {
         String relativePath = "heads" + "/" + branch.getName();
-        writeContents(HEAD_POINTER, relativePath);
+        RepoContext.get().setHead(relativePath);
     }
 
 
@@ -820,30 +1058,27 @@ public class Repository {
      * @return the content of HEADER, the ref of the branch file.
      */
     private static String readHEADERFromFile() {
-        String rawPath = readContentsAsString(Repository.HEAD_POINTER);
+        String rawPath = RepoContext.get().head();
         return rawPath.replace("/", File.separator);
     }
 
     /**
-     * Get the current staging area by reading file "index" from disk.
+     * Get the current staging area, reading file "index" from disk at most once per run.
      *
      * @return the current staging area.
      */
     private static StagingArea getCurrentStaging() {
-        return StagingArea.readFromFile();
+        return RepoContext.get().index();
     }
 
     /**
-     * Get the hash of last commit from branch file.
+     * Get the hash of last commit from branch file, read at most once per run.
      *
      * @return the hash string.
      */
     private static String getLastCommitHash() {
         try {
-            String ref = readHEADERFromFile();
-            String hash = readContentsAsString(join(Repository.GITLET_DIR, ref));
-
-            return hash;
+            return RepoContext.get().ref(getCurrentBranchName());
         } catch (IllegalArgumentException e) {
             return null;
         }
@@ -879,29 +1114,81 @@ public class Repository {
     /**
      * Save the content of file as blob with the hash of the file content as the file name.
      *
-     * @param file the file to be saved as blob.
+     * @param file     the file to be saved as blob.
+     * @param baseHash the hash of the previous version of the file, used as delta base. May be
+     *                 null.
      * @return the hash of the file content.
      */
-    private static String saveBlobContent(File file) {
-        String fileHash = sha1(readContentsAsString(file));
-        if (!BLOBS_DIR.exists()) {
-            BLOBS_DIR.mkdir();
-        }
-        File blobFile = join(BLOBS_DIR, fileHash);
-        if (!blobFile.exists()) {
-            writeContents(blobFile, readContentsAsString(file));
+    private static String saveBlobContent(File file, String baseHash) {
+        String fileHash = sha1(file);
+        if (!ObjectStore.hasBlob(fileHash)) {
+            ObjectStore.writeBlob(fileHash, file, baseHash);
         }
         return fileHash;
     }
 
     /**
-     * Return the content of file by specified id/hash.
+     * Save the content of several files as blobs, on all cores.
+     *
+     * @param files      the files to be saved as blobs.
+     * @param baseHashes the delta base of every file, or null entries.
+     * @return the hash of every file content, in the order of FILES.
+     */
+    private static List<String> saveBlobContents(List<File> files, List<String> baseHashes) {
+        List<Integer> indexes = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            indexes.add(i);
+        }
+        return HashEngine.map(indexes, i -> saveBlobContent(files.get(i), baseHashes.get(i)));
+    }
+
+
+    /**
+     * Write the content of the blob specified by id/hash to FILE, from a pack or from BLOBS_DIR
+     * directory. The content is streamed, so chunked blobs are never held in memory whole.
+     *
+     * @param fileHash id/hash of the blob.
+     * @param file     the file to write.
+     */
+    private static void writeBlobToFile(String fileHash, File file) {
+        file.getParentFile().mkdirs();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()))) {
+            ObjectStore.copyBlob(fileHash, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Write the conflict of two versions of a file to FILE:
+     * <pre>
+     * <<<<<<< HEAD
+     * contents of file in current branch
+     * =======
+     * contents of file in given branch
+     * >>>>>>>
+     * </pre>
+     * A missing version is written as empty content.
      *
-     * @param targetFileID id/hash of the file.
-     * @return the content of file.
+     * @param currentHash the hash of the file in the current branch, or null.
+     * @param givenHash   the hash of the file in the given branch, or null.
+     * @param file        the file to write.
      */
-    private static String readBlobContent(String targetFileID) {
-        return readContentsAsString(join(BLOBS_DIR, targetFileID));
+    private static void writeConflictToFile(String currentHash, String givenHash, File file) {
+        file.getParentFile().mkdirs();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()))) {
+            out.write("<<<<<<< HEAD\n".getBytes(UTF_8));
+            if (currentHash != null) {
+                ObjectStore.copyBlob(currentHash, out);
+            }
+            out.write("=======\n".getBytes(UTF_8));
+            if (givenHash != null) {
+                ObjectStore.copyBlob(givenHash, out);
+            }
+            out.write(">>>>>>>\n".getBytes(UTF_8));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
     /**
@@ -917,64 +1204,132 @@ public class Repository {
         Commit lastCommit = getLastCommit();
 
         if (hasUntrackedFile(sourceCommit)) {
-            System.out.println(
-                    "There is an untracked file in the way; "
-                            + "delete it, or add and commit it first.");
-            System.exit(0);
+            throw new GitletException("There is an untracked file in the way; "
+                    + "delete it, or add and commit it first.");
         }
 
         // Overwriting the files that in the set from current commit and blobs.
         for (String filename : lastCommit.getFileNames()) {
             // Remove.
             if (!sourceCommit.containsFile(filename)) {
-                restrictedDelete(join(CWD, filename));
+                deleteWorkingFile(filename);
             }
         }
+        StagingArea oldIndex = getCurrentStaging();
+        StagingArea newIndex = new StagingArea();
         for (String fileName : sourceCommit.getFileNames()) {
-            if (!lastCommit.containsFile(fileName)) {
-                // Add
-                writeContents(join(CWD, fileName),
-                        readBlobContent(sourceCommit.getFileHash(fileName)));
-            } else if (!sourceCommit.getFileHash(fileName).equals(
-                    lastCommit.getFileHash(fileName))) {
-                // Replace
-                writeContents(join(CWD, fileName),
-                        readBlobContent(sourceCommit.getFileHash(fileName)));
+            String fileHash = sourceCommit.getFileHash(fileName);
+            if (!lastCommit.containsFile(fileName)
+                    || !fileHash.equals(lastCommit.getFileHash(fileName))) {
+                // Add or replace, then remember the stat data of the written file.
+                writeBlobToFile(fileHash, join(CWD, fileName));
+                newIndex.put(fileName, fileHash, StagingArea.FileStat.of(join(CWD, fileName)));
+            } else if (fileHash.equals(oldIndex.getFileHash(fileName))) {
+                // Untouched file, the stat data in the old index still describes it.
+                newIndex.put(fileName, fileHash, oldIndex.getFileStat(fileName));
+            } else {
+                newIndex.put(fileName, fileHash);
             }
         }
 
         // Save the index staging file.
-        sourceCommit.saveStagingToFile();
+        newIndex.saveStagingToFile();
     }
 
+
     /**
      * Check if there is any untracked file in the working directory.
      *
      * @return true if there is any untracked file in the working directory.
      */
     private static boolean hasUntrackedFile(Commit targetCommit) {
-        List<String> fileLists = plainFilenamesIn(CWD);
-
-        if (fileLists != null) {
-            for (String file : fileLists) {
-                if (!getCurrentStaging().containsFile(file) && !getLastCommit().containsFile(
-                        file) && targetCommit.containsFile(file)) {
-                    return true;
-                }
+        StagingArea currentStaging = getCurrentStaging();
+        Commit lastCommit = getLastCommit();
+        for (String file : workingFiles(CWD)) {
+            if (!currentStaging.containsFile(file) && !lastCommit.containsFile(
+                    file) && targetCommit.containsFile(file)) {
+                return true;
             }
-            return false;
         }
         return false;
     }
 
+    /**
+     * Return the paths of all files in DIR and its subdirectories, in the form used by the index,
+     * sorted. The .gitlet directory is skipped.
+     *
+     * @param dir a directory of the working tree.
+     * @return the sorted paths of the files.
+     */
+    private static List<String> workingFiles(File dir) {
+        long start = Trace.start();
+        List<String> files = new ArrayList<>();
+        Path root = dir.toPath().toAbsolutePath().normalize();
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path path,
+                                                         BasicFileAttributes attributes) {
+                    return path.equals(GITLET_DIR.toPath())
+                            ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) {
+                    if (attributes.isRegularFile()) {
+                        files.add(workingPath(path));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        // The walk reads the attributes of every file it visits.
+        Trace.record(Trace.Phase.LIST, start, 0);
+        Trace.count(Trace.Phase.STAT, files.size());
+        Collections.sort(files);
+        return files;
+    }
+
+    /**
+     * Return the path of a working file in the form used by the index: relative to the working
+     * directory, with '/' between directory names.
+     *
+     * @param path the path of the file.
+     * @return the path of the file in the index.
+     */
+    private static String workingPath(Path path) {
+        String relative = CWD.toPath().relativize(path.toAbsolutePath().normalize()).toString();
+        return relative.replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Delete a working file, then its parent directories left empty, up to the working directory.
+     *
+     * @param fileName the path of the file in the index.
+     */
+    private static void deleteWorkingFile(String fileName) {
+        File file = join(CWD, fileName);
+        if (file.isDirectory() || !file.delete()) {
+            return;
+        }
+        File dir = file.getParentFile();
+        while (!dir.equals(CWD) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
+    }
+
     /**
      * Get the full commit id by full length of hash (40) or shorter hash.
      * Requirement for shortest length is 4.
-     * Only return commit if no other object exists with a SHA-1 identifier that starts with the
-     * same six digits.
+     * Only return commit if no other commit has an id that starts with the same digits. The
+     * prefix is looked up by binary search in the {@link CommitIndex}.
+     * <p>
+     * Failure cases: If several commits match, print Commit id is ambiguous. and exit.
      *
      * @param commitID the commit id. Maybe full length or shorter.
-     * @return the full length of commit id.
+     * @return the full length of commit id, or null if no commit matches.
      */
     private static String getFullCommentID(String commitID) {
         if (commitID.length() == 40) {
@@ -983,24 +1338,31 @@ public class Repository {
         if (commitID.length() < 4) {
             return null;
         }
-        List<String> commitFiles = plainFilenamesIn(COMMITS_DIR);
-        if (commitFiles == null) {
-            return null;
+        List<String> matches = CommitIndex.resolve(commitID, 2);
+        if (matches.size() > 1) {
+            throw new GitletException("Commit id is ambiguous.");
         }
+        return matches.isEmpty() ? null : matches.get(0);
+    }
 
-        // Count the number of files that start with the commitID.
-        int count = 0;
-        int index = 0;
-        for (int i = 0; i < commitFiles.size(); i++) {
-            if (commitFiles.get(i).startsWith(commitID)) {
-                count++;
-                index = i;
-            }
+    /**
+     * Print the branches whose head commit passes FILTER, sorted, with a '*' in front of the
+     * current branch.
+     *
+     * @param filter tells if a branch is printed, given the hash of its head commit.
+     */
+    private static void printBranches(Predicate<String> filter) {
+        List<String> branchFiles = plainFilenamesIn(BRANCH_DIR);
+        if (branchFiles == null) {
+            return;
         }
-        if (count == 1) {
-            return commitFiles.get(index);
+        Collections.sort(branchFiles);
+        String currentBranch = getCurrentBranchName();
+        for (String branchFile : branchFiles) {
+            if (filter.test(Branch.readFromFile(branchFile).getCommitHash())) {
+                System.out.println((branchFile.equals(currentBranch) ? "*" : "") + branchFile);
+            }
         }
-        return null;
     }
 
     /**
@@ -1031,89 +1393,15 @@ public class Repository {
      * Given a DAG and two vertices v and w, find the lowest common ancestor (LCA) of v and w.
      * The LCA of v and w is an ancestor of v and w that has no descendants that are also ancestors
      * of v and w.
+     * <p>
+     * The search uses the generation numbers of the commit-graph, so it only visits the commits
+     * between the two tips and the LCA.
      *
      * @param commitA the hash of the current branch.
      * @param commitB the hash of the target branch.
+     * @return the hash of the LCA.
      */
     private static String lowestCommonAncestor(String commitA, String commitB) {
-
-        // 1. Define the depth of a vertex v in a DAG to be the length of the longest path from
-        // a root to v.
-        Map<String, Integer> depth = depthMap(commitA, commitB);
-
-        Set<String> commitAAncestors = ancestors(commitA);
-        Set<String> commitBAncestors = ancestors(commitB);
-        commitAAncestors.retainAll(commitBAncestors);
-        return commitAAncestors.stream().max(Comparator.comparingInt(depth::get)).get();
-    }
-
-    /**
-     * Depth is max distance from root. The depth of root is 0.
-     * We visit nodes in a depth-first fashion. We’ll encounter a lot of unseen vertices and
-     * append them the visitStack, until at some point we’ll hit a root and set its depth to 0.
-     * At this point we start backtracking, pop()-ing nodes from visit as soon as we compute their
-     * depth.
-     *
-     * @param commitA the commit node A
-     * @param commitB the commit node B
-     * @return a map of the depth of each ancestor commit of A and B.
-     */
-    private static Map<String, Integer> depthMap(String commitA, String commitB) {
-        Map<String, Integer> depth = new HashMap<>();
-        Deque<String> visitStack = new LinkedList<>(); // use as stack: push(), peek(), pop()
-        visitStack.push(commitA);
-        visitStack.push(commitB);
-        while (!visitStack.isEmpty()) {
-            String currentHash = visitStack.peek();
-            Commit currentCommit = Commit.readFromFile(currentHash);
-            if (currentCommit.isInitCommit()) {
-                depth.put(currentHash, 0);
-                visitStack.pop();
-            } else {
-                String parent = currentCommit.getParent();
-                if (parent != null && !depth.containsKey(parent)) {
-                    visitStack.push(parent);
-                }
-                String secondParent = currentCommit.getSecondParent();
-                if (secondParent != null && !depth.containsKey(secondParent)) {
-                    visitStack.push(secondParent);
-                }
-                if (currentHash.equals(visitStack.peek())) {
-                    int secondParentDepth = secondParent == null ? 0 : depth.get(secondParent);
-                    int currentDepth = Math.max(depth.get(parent), secondParentDepth) + 1;
-                    depth.put(currentHash, currentDepth);
-                    visitStack.pop();
-                }
-            }
-        }
-        return depth;
-    }
-
-    /**
-     * Get the ancestors of a commit.
-     *
-     * @param commitHash the commit hash.
-     * @return the ancestors of a commit.
-     */
-    private static Set<String> ancestors(String commitHash) {
-        Set<String> ancestors = new HashSet<>();
-        Deque<String> visitStack = new LinkedList<>();
-        visitStack.push(commitHash);
-        while (!visitStack.isEmpty()) {
-            String currentHash = visitStack.pop();
-            if (!ancestors.contains(currentHash)) {
-                ancestors.add(currentHash);
-                Commit currentCommit = Commit.readFromFile(currentHash);
-                String parent = currentCommit.getParent();
-                if (parent != null) {
-                    visitStack.push(parent);
-                }
-                String secondParent = currentCommit.getSecondParent();
-                if (secondParent != null) {
-                    visitStack.push(secondParent);
-                }
-            }
-        }
-        return ancestors;
+        return CommitGraph.load().mergeBase(commitA, commitB);
     }
 }
@@ -1,43 +1,96 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Represent the index. In real git, index is a tree structure that saved all the files or
  * directories that have been traced or managed. By comparing the indexes, we can defer the
  * staged files and the files staged to be removed.
+ * <p>
+ * The index file also keeps a stat cache: the size, modification time and file key (inode) of
+ * every working file at the time its hash was known. A file whose stat data did not change need
+ * not be hashed again. The cache is never part of a commit.
  *
  * @author hdon694
  */
 public class StagingArea implements Serializable {
+    /**
+     * Fixed, so that the index and commits written before the stat cache can still be read.
+     */
+    private static final long serialVersionUID = 1679103642913162297L;
+
     /**
      * The index map used to trace files by filename and hash pairs.
      * <p>
-     * In real git, this should be tree structure. But this gitlet project, only "flat" directory.
+     * A filename is the path of the file from the working directory, with '/' between directory
+     * names. Commits save these files as a {@link Tree} per directory.
      */
     private Map<String, String> index;
+    /**
+     * The stat data of working files by filename, saved in the index file only.
+     */
+    private transient Map<String, FileStat> stats;
+    /**
+     * Modification time of the index file when it was read, in nanoseconds.
+     */
+    private transient long indexTime;
 
     public StagingArea() {
         index = new HashMap<>();
+        stats = new HashMap<>();
     }
 
     /**
-     * Read index from saved file ".gitlet/index".
+     * Read index from saved file ".gitlet/index". The index is followed by the stat cache,
+     * except in index files written before the cache existed.
      */
+    @SuppressWarnings("unchecked")
     public static StagingArea readFromFile() {
-
-        return Utils.readObject(Repository.INDEX, StagingArea.class);
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(
+                Files.newInputStream(Repository.INDEX.toPath())))) {
+            StagingArea result = (StagingArea) in.readObject();
+            try {
+                result.stats = (Map<String, FileStat>) in.readObject();
+            } catch (EOFException excp) {
+                result.stats = new HashMap<>();
+            }
+            result.indexTime = Files.getLastModifiedTime(Repository.INDEX.toPath())
+                    .to(TimeUnit.NANOSECONDS);
+            return result;
+        } catch (IOException | ClassCastException | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
     /**
-     * Save this instance to file ".gitlet/index".
+     * Save this instance and its stat cache to file ".gitlet/index".
      */
     public void saveStagingToFile() {
-
-        Utils.writeObject(Repository.INDEX, this);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(this);
+            out.writeObject(stats == null ? new HashMap<>() : stats);
+            out.close();
+            Utils.writeContents(Repository.INDEX, (Object) bytes.toByteArray());
+        } catch (IOException excp) {
+            throw Utils.error("Internal error serializing index.");
+        }
+        RepoContext.get().setIndex(this);
     }
 
     /**
@@ -47,7 +100,57 @@ public class StagingArea implements Serializable {
      * @param fileHash the hash of file.
      */
     public void put(String fileName, String fileHash) {
+        put(fileName, fileHash, null);
+    }
+
+    /**
+     * Update index by filename and hash pairs, and remember the stat data of the working file
+     * that has this hash.
+     *
+     * @param fileName the name of file.
+     * @param fileHash the hash of file.
+     * @param stat     the stat data of the file taken before it was hashed, or null.
+     */
+    public void put(String fileName, String fileHash, FileStat stat) {
         index.put(fileName, fileHash);
+        if (stats == null) {
+            stats = new HashMap<>();
+        }
+        if (stat == null) {
+            stats.remove(fileName);
+        } else {
+            stats.put(fileName, stat);
+        }
+    }
+
+    /**
+     * Return the cached stat data of the file, or null.
+     *
+     * @param fileName the name of file.
+     * @return the stat data saved with the hash of the file, or null.
+     */
+    public FileStat getFileStat(String fileName) {
+        return stats == null ? null : stats.get(fileName);
+    }
+
+    /**
+     * Check if the working file certainly still has the hash in the index, by comparing its
+     * stat data with the cache instead of hashing it.
+     * <p>
+     * Racy-git safeguard: a file modified in the same clock tick as the index was written could
+     * change again without its modification time changing. Such an entry is not trusted, and
+     * the file must be hashed.
+     *
+     * @param fileName the name of file.
+     * @param file     the working file.
+     * @return true if the file is unchanged since its hash was recorded.
+     */
+    public boolean isUnchanged(String fileName, File file) {
+        FileStat cached = getFileStat(fileName);
+        if (cached == null || cached.mtime >= indexTime) {
+            return false;
+        }
+        return cached.equals(FileStat.of(file));
     }
 
 
@@ -68,6 +171,9 @@ public class StagingArea implements Serializable {
      * @return the hash of the file.
      */
     public String removeFile(String fileName) {
+        if (stats != null) {
+            stats.remove(fileName);
+        }
         return index.remove(fileName);
     }
 
@@ -130,4 +236,73 @@ public class StagingArea implements Serializable {
     public int hashCode() {
         return index.hashCode();
     }
+
+    /**
+     * The stat data of a working file: size, modification time and file key.
+     */
+    static class FileStat implements Serializable {
+        /**
+         * Fixed, so that indexes written so far can still be read.
+         */
+        private static final long serialVersionUID = -473363117640559198L;
+
+        /**
+         * Size of the file in bytes.
+         */
+        private final long size;
+        /**
+         * Modification time of the file in nanoseconds.
+         */
+        private final long mtime;
+        /**
+         * The file key, e.g. device and inode, or null where the file system has none.
+         */
+        private final String fileKey;
+
+        FileStat(long size, long mtime, String fileKey) {
+            this.size = size;
+            this.mtime = mtime;
+            this.fileKey = fileKey;
+        }
+
+        /**
+         * Read the stat data of FILE, or return null if it cannot be read.
+         *
+         * @param file the working file.
+         * @return the stat data of the file, or null.
+         */
+        static FileStat of(File file) {
+            long start = Trace.start();
+            try {
+                BasicFileAttributes attributes =
+                        Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                Object key = attributes.fileKey();
+                return new FileStat(attributes.size(),
+                        attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                        key == null ? null : key.toString());
+            } catch (IOException excp) {
+                return null;
+            } finally {
+                Trace.record(Trace.Phase.STAT, start, 0);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            FileStat that = (FileStat) o;
+            return size == that.size && mtime == that.mtime
+                    && Objects.equals(fileKey, that.fileKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(size, mtime, fileKey);
+        }
+    }
 }
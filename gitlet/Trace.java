@@ -0,0 +1,201 @@
+package gitlet;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Count and time what one command spends its time on: reading commits, trees and blobs,
+ * writing blobs, hashing, listing directories and stat-ing files.
+ * <p>
+ * Tracing is on for a command when it starts with {@code --trace}. {@link Main#main} adds it when
+ * the environment variable GITLET_TRACE is set, and so does {@code scripts/gitlet} for commands
+ * sent to a daemon, whose own environment is not the client's. At the end of the command a breakdown by phase is printed
+ * to standard error: the number of operations, their time and the bytes they handled. The times
+ * of a phase include those of the phases nested in it, as hashing the chunks of a blob being
+ * written, and the work of parallel threads adds up.
+ * <p>
+ * When a Java Flight Recorder recording is running, for instance in a daemon started with
+ * {@code -XX:StartFlightRecording} or given {@code jcmd <pid> JFR.start}, every command is also
+ * traced and recorded as a {@link TraceEvent}. The event class is not loaded otherwise, since
+ * loading it takes a large part of the start of a JVM.
+ *
+ * @author hdon694
+ */
+class Trace {
+    /**
+     * The environment variable that turns tracing on for every command.
+     */
+    static final String ENV = "GITLET_TRACE";
+    /**
+     * The option that turns tracing on for one command, given before the command.
+     */
+    static final String FLAG = "--trace";
+
+    /**
+     * What the time of a command goes to.
+     */
+    enum Phase {
+        COMMIT_READ("commit reads", true),
+        TREE_READ("tree reads", true),
+        BLOB_READ("blob reads", false),
+        BLOB_WRITE("blob writes", true),
+        HASH("hashing", true),
+        LIST("directory listings", false),
+        STAT("file stats", false);
+
+        final String label;
+        /**
+         * Whether the phase counts bytes.
+         */
+        final boolean bytes;
+
+        Phase(String label, boolean bytes) {
+            this.label = label;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final int PHASES = Phase.values().length;
+
+    /**
+     * Whether the current command is traced.
+     */
+    private static boolean enabled;
+    /**
+     * Whether the breakdown is printed at the end of the current command.
+     */
+    private static boolean print;
+    private static String command;
+    private static long begin;
+    private static TraceEvent event;
+
+    private static final AtomicLongArray COUNTS = new AtomicLongArray(PHASES);
+    private static final AtomicLongArray NANOS = new AtomicLongArray(PHASES);
+    private static final AtomicLongArray BYTES = new AtomicLongArray(PHASES);
+
+    /**
+     * Start tracing a command if asked to, and return ARGS without {@code --trace}.
+     *
+     * @param args the arguments of gitlet.
+     * @return the command and its operands.
+     */
+    static String[] begin(String[] args) {
+        print = false;
+        if (args.length > 0 && args[0].equals(FLAG)) {
+            print = true;
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        event = null;
+        if (FlightRecorder.isInitialized()) {
+            event = new TraceEvent();
+            if (event.isEnabled()) {
+                event.begin();
+            } else {
+                event = null;
+            }
+        }
+        enabled = print || event != null;
+        if (enabled) {
+            command = args.length > 0 ? args[0] : "";
+            for (int i = 0; i < PHASES; i++) {
+                COUNTS.set(i, 0);
+                NANOS.set(i, 0);
+                BYTES.set(i, 0);
+            }
+            begin = System.nanoTime();
+        }
+        return args;
+    }
+
+    /**
+     * Return the time an operation starts at, to pass to {@link #record}, or 0 when the command
+     * is not traced.
+     *
+     * @return the start time in nanoseconds.
+     */
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record an operation of PHASE that began at START and handled BYTES bytes.
+     *
+     * @param phase the phase of the operation.
+     * @param start the value of {@link #start} before the operation.
+     * @param bytes the number of bytes read, written or hashed.
+     */
+    static void record(Phase phase, long start, long bytes) {
+        if (enabled) {
+            NANOS.addAndGet(phase.ordinal(), System.nanoTime() - start);
+            COUNTS.incrementAndGet(phase.ordinal());
+            BYTES.addAndGet(phase.ordinal(), bytes);
+        }
+    }
+
+    /**
+     * Record N operations of PHASE whose time is part of another operation.
+     *
+     * @param phase the phase of the operations.
+     * @param n     the number of operations.
+     */
+    static void count(Phase phase, long n) {
+        if (enabled) {
+            COUNTS.addAndGet(phase.ordinal(), n);
+        }
+    }
+
+    /**
+     * End tracing the current command: print the breakdown, and commit the event.
+     */
+    static void end() {
+        if (!enabled) {
+            return;
+        }
+        enabled = false;
+        long wall = System.nanoTime() - begin;
+        if (print) {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format("trace: %s %.1f ms%n", command, wall / 1e6));
+            for (Phase phase : Phase.values()) {
+                int i = phase.ordinal();
+                report.append(String.format("  %-20s %8d %10.1f ms", phase.label,
+                        COUNTS.get(i), NANOS.get(i) / 1e6));
+                if (phase.bytes) {
+                    report.append(String.format(" %14d bytes", BYTES.get(i)));
+                }
+                report.append(System.lineSeparator());
+            }
+            System.err.print(report);
+            System.err.flush();
+        }
+        if (event != null) {
+            commitEvent(event);
+        }
+    }
+
+    private static void commitEvent(TraceEvent traceEvent) {
+        traceEvent.end();
+        traceEvent.command = command;
+        traceEvent.commitReads = COUNTS.get(Phase.COMMIT_READ.ordinal());
+        traceEvent.commitReadTime = NANOS.get(Phase.COMMIT_READ.ordinal());
+        traceEvent.commitReadBytes = BYTES.get(Phase.COMMIT_READ.ordinal());
+        traceEvent.treeReads = COUNTS.get(Phase.TREE_READ.ordinal());
+        traceEvent.treeReadTime = NANOS.get(Phase.TREE_READ.ordinal());
+        traceEvent.treeReadBytes = BYTES.get(Phase.TREE_READ.ordinal());
+        traceEvent.blobReads = COUNTS.get(Phase.BLOB_READ.ordinal());
+        traceEvent.blobReadTime = NANOS.get(Phase.BLOB_READ.ordinal());
+        traceEvent.blobWrites = COUNTS.get(Phase.BLOB_WRITE.ordinal());
+        traceEvent.blobWriteTime = NANOS.get(Phase.BLOB_WRITE.ordinal());
+        traceEvent.blobWriteBytes = BYTES.get(Phase.BLOB_WRITE.ordinal());
+        traceEvent.hashes = COUNTS.get(Phase.HASH.ordinal());
+        traceEvent.hashTime = NANOS.get(Phase.HASH.ordinal());
+        traceEvent.bytesHashed = BYTES.get(Phase.HASH.ordinal());
+        traceEvent.listings = COUNTS.get(Phase.LIST.ordinal());
+        traceEvent.listTime = NANOS.get(Phase.LIST.ordinal());
+        traceEvent.filesStated = COUNTS.get(Phase.STAT.ordinal());
+        traceEvent.statTime = NANOS.get(Phase.STAT.ordinal());
+        traceEvent.commit();
+    }
+}
@@ -0,0 +1,79 @@
+package gitlet;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The Java Flight Recorder event of one traced command, with the same counts as the breakdown
+ * printed by {@link Trace}. Its duration is the wall time of the command.
+ *
+ * @author hdon694
+ */
+@Name("gitlet.Command")
+@Label("Gitlet Command")
+@Category("Gitlet")
+@Description("A gitlet command, with the work it did by phase")
+@StackTrace(false)
+class TraceEvent extends jdk.jfr.Event {
+    @Label("Command")
+    String command;
+
+    @Label("Commit Reads")
+    long commitReads;
+    @Label("Commit Read Time")
+    @Timespan
+    long commitReadTime;
+    @Label("Commit Bytes Read")
+    @DataAmount
+    long commitReadBytes;
+
+    @Label("Tree Reads")
+    long treeReads;
+    @Label("Tree Read Time")
+    @Timespan
+    long treeReadTime;
+    @Label("Tree Bytes Read")
+    @DataAmount
+    long treeReadBytes;
+
+    @Label("Blob Reads")
+    long blobReads;
+    @Label("Blob Read Time")
+    @Timespan
+    long blobReadTime;
+
+    @Label("Blob Writes")
+    long blobWrites;
+    @Label("Blob Write Time")
+    @Timespan
+    long blobWriteTime;
+    @Label("Blob Bytes Written")
+    @DataAmount
+    long blobWriteBytes;
+
+    @Label("Hashes")
+    long hashes;
+    @Label("Hash Time")
+    @Timespan
+    long hashTime;
+    @Label("Bytes Hashed")
+    @DataAmount
+    long bytesHashed;
+
+    @Label("Directory Listings")
+    long listings;
+    @Label("Listing Time")
+    @Timespan
+    long listTime;
+
+    @Label("Files Stat'ed")
+    long filesStated;
+    @Label("Stat Time")
+    @Timespan
+    long statTime;
+}
@@ -0,0 +1,156 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Encode the files of a commit as tree objects, one per directory, the way git does.
+ * <p>
+ * A tree lists the entries of one directory: files, with the id of their blob, and
+ * subdirectories, with the id of their own tree. A tree is named by the SHA-1 of its bytes, so a
+ * directory whose content did not change between two commits has the same id in both and is
+ * stored once. A commit only refers to the root tree.
+ * <p>
+ * The stored tree starts with MAGIC, then the number of entries, then for every entry in name
+ * order: its kind (FILE or TREE), the length of its name, the name in UTF-8 and the 20-byte id.
+ * Numbers are variable-length integers.
+ * <p>
+ * Inside gitlet, files are named by their path from the working directory, with '/' between
+ * directory names, e.g. {@code src/main/Foo.java}.
+ *
+ * @author hdon694
+ */
+class Tree {
+    /**
+     * Header of a tree.
+     */
+    private static final byte[] MAGIC = {0, 'G', 'L', 'T'};
+
+    private static final int FILE = 0;
+    private static final int TREE = 1;
+
+    /**
+     * Save the trees of FILES that are not stored yet, and return the id of the root tree.
+     *
+     * @param files the blob id of every file by path.
+     * @return the id of the root tree.
+     */
+    static String save(NavigableMap<String, String> files) {
+        return build(files, "", true);
+    }
+
+    /**
+     * Return the id that the root tree of FILES would have, without saving anything.
+     *
+     * @param files the blob id of every file by path.
+     * @return the id of the root tree.
+     */
+    static String hashOf(NavigableMap<String, String> files) {
+        return build(files, "", false);
+    }
+
+    /**
+     * Read the tree TREEHASH and all its subtrees.
+     *
+     * @param treeHash the id of the root tree.
+     * @return the blob id of every file by path, sorted by path.
+     */
+    static TreeMap<String, String> read(String treeHash) {
+        TreeMap<String, String> files = new TreeMap<>();
+        read(treeHash, "", files);
+        return files;
+    }
+
+    /**
+     * Encode the directory PREFIX, whose files are FILES, and return the id of its tree. Every
+     * key of FILES starts with PREFIX.
+     */
+    private static String build(NavigableMap<String, String> files, String prefix,
+                                boolean save) {
+        // Entries of this directory by name.
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        String path = files.isEmpty() ? null : files.firstKey();
+        while (path != null) {
+            String rest = path.substring(prefix.length());
+            int slash = rest.indexOf('/');
+            if (slash < 0) {
+                entries.put(rest, new Entry(FILE, files.get(path)));
+                path = files.higherKey(path);
+            } else {
+                // Every path of the subdirectory sorts between "name/" and "name0", since '0'
+                // follows '/'.
+                String name = rest.substring(0, slash);
+                String start = prefix + name + '/';
+                String end = prefix + name + '0';
+                String subtree = build(files.subMap(start, true, end, false), start, save);
+                entries.put(name, new Entry(TREE, subtree));
+                path = files.ceilingKey(end);
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(MAGIC);
+        Utils.writeVarint(out, entries.size());
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            byte[] name = entry.getKey().getBytes(UTF_8);
+            out.write(entry.getValue().kind);
+            Utils.writeVarint(out, name.length);
+            out.writeBytes(name);
+            out.writeBytes(PackFile.fromHex(entry.getValue().id));
+        }
+        byte[] bytes = out.toByteArray();
+        String hash = Utils.sha1((Object) bytes);
+        if (save && !ObjectStore.hasTree(hash)) {
+            ObjectStore.writeTree(hash, bytes);
+        }
+        return hash;
+    }
+
+    private static void read(String treeHash, String prefix, Map<String, String> files) {
+        byte[] bytes = ObjectStore.readTree(treeHash);
+        if (bytes.length < MAGIC.length
+                || !Arrays.equals(bytes, 0, MAGIC.length, MAGIC, 0, MAGIC.length)) {
+            throw Utils.error("Not a tree: %s", treeHash);
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes, MAGIC.length, bytes.length - MAGIC.length);
+        long count = Utils.readVarint(in);
+        for (long i = 0; i < count; i++) {
+            int kind = in.get();
+            byte[] name = new byte[(int) Utils.readVarint(in)];
+            in.get(name);
+            byte[] id = new byte[20];
+            in.get(id);
+            String path = prefix + new String(name, UTF_8);
+            if (kind == TREE) {
+                read(PackFile.toHex(id), path + '/', files);
+            } else {
+                files.put(path, PackFile.toHex(id));
+            }
+        }
+    }
+
+    /**
+     * An entry of a directory: a file or a subdirectory.
+     */
+    private static class Entry {
+        /**
+         * FILE or TREE.
+         */
+        private final int kind;
+        /**
+         * The id of the blob of a file, or of the tree of a subdirectory.
+         */
+        private final String id;
+
+        Entry(int kind, String id) {
+            this.kind = kind;
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+#!/usr/bin/env python3
+"""Time gitlet commands on large generated repositories.
+
+Usage: python3 macrobench.py [OPTIONS]
+
+For every combination of FILES and COMMITS, generate a repository with
+repogen.py, then run each of add, commit, status, log, checkout, reset and merge
+RUNS times on a copy of it. Report, for every command, the median (p50) and the
+99th percentile (p99) of its latency, and the mean number of bytes it read and
+wrote. "read" and "written" count every byte gitlet passed to read and write
+calls, including the class files the JVM loads; "disk read" and "disk written"
+count what reached the storage device, so cached reads do not show there.
+
+The commands run one after the other on the same copy, and each run leaves the
+repository clean on master:
+    add       change CHANGES files, add them, then commit them (not timed).
+    commit    change and add CHANGES files, then commit them.
+    status    a clean working directory.
+    log       the history of master.
+    checkout  check out topic0, then master, each timed.
+    reset     reset to the 10th commit back, then to the tip, each timed.
+    merge     commit changes on topic0 (not timed), then merge it into master.
+So every add, commit and merge run adds commits to the history. checkout and
+merge need topic branches, and are skipped with --branches=0.
+
+Options:
+    --files=N,...    Numbers of files to generate repositories with
+                     (default 1000).
+    --commits=M,...  Numbers of commits of the generated repositories
+                     (default 200).
+    --runs=R         Number of timed runs of every command (default 20).
+    --work=DIR       Keep the generated repositories in DIR, and use the ones
+                     already there instead of generating them again. By
+                     default they are generated in a temporary directory.
+    --launcher=CMD   How gitlet is started, split on spaces (default
+                     "java gitlet.Main", with $CLASSPATH).
+    --branches, --merge-every, --changes, --sizes, --seed
+                     Passed on to repogen.py; see there.
+"""
+
+import math
+import os
+import random
+import resource
+import shutil
+import statistics
+import subprocess
+import sys
+import tempfile
+import time
+from getopt import getopt, GetoptError
+
+import repogen
+
+USAGE = "Usage: python3 macrobench.py [OPTIONS]"
+
+PROC_IO = "/proc/self/io"
+
+COMMANDS = ["add", "commit", "status", "log", "checkout", "reset", "merge"]
+
+
+def io_counters():
+    """Return the bytes read and written, and read from and written to disk, by
+    this process and its finished children. Without /proc, only the disk
+    counts are known, in blocks of 512 bytes, and the others are None."""
+    if os.path.exists(PROC_IO):
+        with open(PROC_IO) as f:
+            counters = dict(line.split(": ") for line in f.read().splitlines())
+        return (int(counters["rchar"]), int(counters["wchar"]),
+                int(counters["read_bytes"]), int(counters["write_bytes"]))
+    usage = resource.getrusage(resource.RUSAGE_CHILDREN)
+    return None, None, usage.ru_inblock * 512, usage.ru_oublock * 512
+
+
+def percentile(values, p):
+    """Return the P-th percentile of VALUES, by the nearest-rank method."""
+    ordered = sorted(values)
+    return ordered[max(0, math.ceil(p / 100 * len(ordered)) - 1)]
+
+
+class Bench:
+    """Run gitlet commands in one repository and record the timed ones."""
+
+    def __init__(self, launcher, directory):
+        self.launcher = launcher
+        self.directory = directory
+        self.samples = {}
+
+    def gitlet(self, *args):
+        """Run gitlet with ARGS, untimed, and return its output."""
+        result = subprocess.run(self.launcher + list(args), cwd=self.directory,
+                                stdout=subprocess.PIPE,
+                                universal_newlines=True, check=True)
+        return result.stdout
+
+    def timed(self, name, *args):
+        """Run gitlet with ARGS, and record its latency and I/O under NAME."""
+        before = io_counters()
+        start = time.perf_counter()
+        subprocess.run(self.launcher + list(args), cwd=self.directory,
+                       stdout=subprocess.DEVNULL, check=True)
+        elapsed = time.perf_counter() - start
+        after = io_counters()
+        io = [None if b is None else a - b for a, b in zip(after, before)]
+        self.samples.setdefault(name, []).append([elapsed * 1000] + io)
+
+    def change(self, candidates, count, seed):
+        """Append a line to COUNT files of CANDIDATES, a list of file numbers,
+        and return their names."""
+        rng = random.Random(seed)
+        names = [repogen.file_name(i)
+                 for i in rng.sample(candidates, min(count, len(candidates)))]
+        for name in names:
+            with open(os.path.join(self.directory, name), "a") as f:
+                f.write("change {}\n".format(seed))
+        return names
+
+
+def run_commands(bench, runs, files, branches, changes):
+    """Time every command RUNS times in the repository of BENCH, generated with
+    FILES files and BRANCHES topic branches."""
+    # Changes on master leave the files of topic0 alone, so that merging it
+    # never conflicts; with a single topic branch it owns every file.
+    topic0 = [i for i in range(files) if branches and i % branches == 0]
+    others = [i for i in range(files)
+              if not branches or i % branches != 0] or topic0
+    master = [line.split()[0]
+              for line in bench.gitlet("log", "--oneline").splitlines()]
+    older = master[min(10, len(master) - 1)]
+    for run in range(runs):
+        names = bench.change(others, changes, run)
+        bench.timed("add", "add", *names)
+        bench.gitlet("commit", "Bench add {}".format(run))
+    for run in range(runs):
+        names = bench.change(others, changes, runs + run)
+        bench.gitlet("add", *names)
+        bench.timed("commit", "commit", "Bench commit {}".format(run))
+    for run in range(runs):
+        bench.timed("status", "status")
+    for run in range(runs):
+        bench.timed("log", "log")
+    if branches:
+        for run in range(runs):
+            bench.timed("checkout", "checkout", "topic0")
+            bench.timed("checkout", "checkout", "master")
+    tip = bench.gitlet("log", "-n", "1", "--format=%H").strip()
+    for run in range(runs):
+        bench.timed("reset", "reset", older)
+        bench.timed("reset", "reset", tip)
+    if branches:
+        for run in range(runs):
+            bench.gitlet("checkout", "topic0")
+            bench.gitlet("add", *bench.change(topic0, changes, 2 * runs + run))
+            bench.gitlet("commit", "Bench merge {}".format(run))
+            bench.gitlet("checkout", "master")
+            bench.timed("merge", "merge", "topic0")
+
+
+def report(samples):
+    print("{:<10}{:>10}{:>10}{:>14}{:>14}{:>14}{:>14}".format(
+        "command", "p50 ms", "p99 ms", "read KiB", "written KiB",
+        "disk read KiB", "disk wr KiB"))
+    for name in COMMANDS:
+        if name not in samples:
+            print("{:<10}{:>10}".format(name, "-"))
+            continue
+        rows = samples[name]
+        latencies = [row[0] for row in rows]
+        columns = []
+        for k in range(1, 5):
+            values = [row[k] for row in rows]
+            columns.append("-" if None in values
+                           else "{:.1f}".format(statistics.mean(values) / 1024))
+        print("{:<10}{:>10.1f}{:>10.1f}{:>14}{:>14}{:>14}{:>14}".format(
+            name, percentile(latencies, 50), percentile(latencies, 99),
+            *columns))
+
+
+def main():
+    try:
+        opts, args = getopt(sys.argv[1:], "",
+                            ["files=", "commits=", "runs=", "work=",
+                             "launcher=", "branches=", "merge-every=",
+                             "changes=", "sizes=", "seed="])
+    except GetoptError:
+        print(USAGE, file=sys.stderr)
+        sys.exit(1)
+    if args:
+        print(USAGE, file=sys.stderr)
+        sys.exit(1)
+    file_counts = [repogen.DEFAULTS["files"]]
+    commit_counts = [repogen.DEFAULTS["commits"]]
+    runs = 20
+    work = None
+    launcher = ["java", "gitlet.Main"]
+    options = dict(repogen.DEFAULTS)
+    for opt, value in opts:
+        if opt == "--files":
+            file_counts = [int(n) for n in value.split(",")]
+        elif opt == "--commits":
+            commit_counts = [int(n) for n in value.split(",")]
+        elif opt == "--runs":
+            runs = int(value)
+        elif opt == "--work":
+            work = os.path.abspath(value)
+            os.makedirs(work, exist_ok=True)
+        elif opt == "--launcher":
+            launcher = repogen.absolute_launcher(value)
+        elif opt == "--sizes":
+            options["sizes"] = repogen.parse_sizes(value)
+        else:
+            options[opt[2:].replace("-", "_")] = int(value)
+
+    scratch = tempfile.mkdtemp(prefix="gitlet-macrobench")
+    try:
+        for files in file_counts:
+            for commits in commit_counts:
+                options.update(files=files, commits=commits)
+                template = os.path.join(work or scratch, "repo-{}".format(
+                    "-".join("{}{}".format(key, options[key])
+                             for key in ["files", "commits", "branches",
+                                         "merge_every", "changes", "seed"])
+                    + "-sizes" + "_".join("{}x{}".format(size, weight)
+                                          for size, weight in options["sizes"])))
+                if not os.path.isdir(template):
+                    print("Generating {} ...".format(template), file=sys.stderr)
+                    # Left over by an interrupted run.
+                    shutil.rmtree(template + ".tmp", ignore_errors=True)
+                    repogen.generate(template + ".tmp", launcher, **options)
+                    os.rename(template + ".tmp", template)
+                copy = os.path.join(scratch, "bench")
+                shutil.rmtree(copy, ignore_errors=True)
+                shutil.copytree(template, copy, symlinks=True)
+                bench = Bench(launcher, copy)
+                run_commands(bench, runs, files, options["branches"],
+                             options["changes"])
+                print("files={} commits={} branches={} runs={}".format(
+                    files, commits, options["branches"], runs))
+                report(bench.samples)
+                print()
+    finally:
+        shutil.rmtree(scratch, ignore_errors=True)
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,199 @@
+#!/usr/bin/env python3
+"""Generate a large gitlet repository to benchmark against.
+
+Usage: python3 repogen.py [OPTIONS] DIR
+
+Build a repository of FILES files in the new directory DIR, 100 files per
+subdirectory, with commit after commit made by gitlet itself. The first commit
+adds every file. Then the files are split between BRANCHES topic branches, and
+in rounds every branch gets MERGE_EVERY commits, each changing a few of its
+own files, and is merged into master. Branches change disjoint files, so the
+merges never conflict. After COMMITS such commits (merges not counted), master
+is checked out.
+
+The size of every file is drawn from SIZES, a list of SIZE:WEIGHT pairs. The
+contents are lines of random words, so that they look like text to diff. The
+same options and SEED always give the same files and history.
+
+Options:
+    --files=N        Number of files (default 1000).
+    --commits=M      Number of commits besides the first and the merges
+                     (default 200).
+    --branches=B     Number of topic branches (default 4). With 0, every
+                     commit is made on master.
+    --merge-every=K  Number of commits on a branch before it is merged
+                     (default 10).
+    --changes=C      Number of files changed by every commit (default 5).
+    --sizes=SIZES    Distribution of file sizes in bytes
+                     (default 1024:70,16384:25,1048576:5).
+    --seed=S         Seed of the random generator (default 61).
+    --launcher=CMD   How gitlet is started, split on spaces (default
+                     "java gitlet.Main", with $CLASSPATH).
+"""
+
+import os
+import random
+import subprocess
+import sys
+from getopt import getopt, GetoptError
+
+USAGE = "Usage: python3 repogen.py [OPTIONS] DIR"
+
+DEFAULTS = {
+    "files": 1000,
+    "commits": 200,
+    "branches": 4,
+    "merge_every": 10,
+    "changes": 5,
+    "sizes": [(1024, 70), (16384, 25), (1048576, 5)],
+    "seed": 61,
+}
+
+WORDS = ("gitlet commit branch merge index blob tree head staging object "
+         "checkout reset status log remove ancestor split point conflict "
+         "version history parent hash file directory").split()
+
+# Most files given to one add command, to stay below the limit on arguments.
+ADD_BATCH = 500
+
+
+def parse_sizes(text):
+    """Return the list of (size, weight) pairs of TEXT, like "1024:70,16384:30"."""
+    sizes = []
+    for pair in text.split(","):
+        size, weight = pair.split(":")
+        sizes.append((int(size), int(weight)))
+    return sizes
+
+
+def file_name(i):
+    return "dir{}/file{}.txt".format(i // 100, i % 100)
+
+
+def text(rng, size):
+    """Return about SIZE bytes of lines of random words."""
+    lines = []
+    length = 0
+    while length < size:
+        line = " ".join(rng.choice(WORDS) for _ in range(rng.randint(3, 12)))
+        lines.append(line)
+        length += len(line) + 1
+    return "\n".join(lines) + "\n"
+
+
+def generate(directory, launcher, files=DEFAULTS["files"],
+             commits=DEFAULTS["commits"], branches=DEFAULTS["branches"],
+             merge_every=DEFAULTS["merge_every"], changes=DEFAULTS["changes"],
+             sizes=DEFAULTS["sizes"], seed=DEFAULTS["seed"], log=None):
+    """Build the repository in the new directory DIRECTORY, running gitlet as
+    LAUNCHER, a list of words. Return the names of the topic branches. LOG, if
+    given, is called with a line of progress now and then."""
+    rng = random.Random(seed)
+    os.mkdir(directory)
+    names = [file_name(i) for i in range(files)]
+    file_sizes = rng.choices([size for size, _ in sizes],
+                             weights=[weight for _, weight in sizes], k=files)
+
+    def gitlet(*args):
+        result = subprocess.run(launcher + list(args), cwd=directory,
+                                stdout=subprocess.PIPE, stderr=subprocess.PIPE,
+                                universal_newlines=True)
+        if result.returncode != 0 or result.stderr:
+            raise RuntimeError("gitlet {} failed: {}{}".format(
+                " ".join(args), result.stdout, result.stderr))
+        return result.stdout
+
+    def write(i):
+        path = os.path.join(directory, names[i])
+        os.makedirs(os.path.dirname(path), exist_ok=True)
+        with open(path, "w") as f:
+            f.write(text(rng, file_sizes[i]))
+
+    def add(changed):
+        changed = [names[i] for i in changed]
+        for start in range(0, len(changed), ADD_BATCH):
+            gitlet("add", *changed[start:start + ADD_BATCH])
+
+    gitlet("init")
+    for i in range(files):
+        write(i)
+    add(range(files))
+    gitlet("commit", "Add {} files".format(files))
+
+    topics = ["topic{}".format(b) for b in range(branches)]
+    for topic in topics:
+        gitlet("branch", topic)
+    if topics:
+        # A merge into a master that is an ancestor of the branch would check
+        # out the branch instead (a fast-forward), so master moves on first.
+        with open(os.path.join(directory, "topics.txt"), "w") as f:
+            f.write("\n".join(topics) + "\n")
+        gitlet("add", "topics.txt")
+        gitlet("commit", "List topic branches")
+    # Every branch changes only its own slice of the files.
+    owners = topics or ["master"]
+    owned = {owner: list(range(files))[k::len(owners)]
+             for k, owner in enumerate(owners)}
+
+    made = 0
+    while made < commits:
+        for owner in owners:
+            if made >= commits:
+                break
+            if owner != "master":
+                gitlet("checkout", owner)
+            for _ in range(merge_every if topics else 1):
+                if made >= commits:
+                    break
+                changed = rng.sample(owned[owner],
+                                     min(changes, len(owned[owner])))
+                for i in changed:
+                    write(i)
+                add(changed)
+                made += 1
+                gitlet("commit", "Change {} files on {} ({})".format(
+                    len(changed), owner, made))
+            if owner != "master":
+                gitlet("checkout", "master")
+                gitlet("merge", owner)
+            if log is not None:
+                log("{} of {} commits".format(made, commits))
+    return topics
+
+
+def absolute_launcher(command):
+    """Split COMMAND into words, with a relative path to the program made
+    absolute, since gitlet runs in other directories."""
+    launcher = command.split()
+    if os.sep in launcher[0]:
+        launcher[0] = os.path.abspath(launcher[0])
+    return launcher
+
+
+def main():
+    try:
+        opts, args = getopt(sys.argv[1:], "",
+                            ["files=", "commits=", "branches=",
+                             "merge-every=", "changes=", "sizes=", "seed=",
+                             "launcher="])
+    except GetoptError:
+        print(USAGE, file=sys.stderr)
+        sys.exit(1)
+    if len(args) != 1:
+        print(USAGE, file=sys.stderr)
+        sys.exit(1)
+    options = {}
+    launcher = ["java", "gitlet.Main"]
+    for opt, value in opts:
+        if opt == "--sizes":
+            options["sizes"] = parse_sizes(value)
+        elif opt == "--launcher":
+            launcher = absolute_launcher(value)
+        else:
+            options[opt[2:].replace("-", "_")] = int(value)
+    generate(args[0], launcher, log=lambda line: print(line, file=sys.stderr),
+             **options)
+
+
+if __name__ == "__main__":
+    main()